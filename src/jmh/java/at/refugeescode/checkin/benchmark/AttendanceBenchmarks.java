@@ -0,0 +1,89 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.service.CheckService;
+import at.refugeescode.checkin.service.OverviewService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.util.Pair;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks the attendance computations against a seeded benchmark database, see {@link BenchmarkDatabase}.
+ * Every invocation picks the next person or day, so caches only help as much as they would with real traffic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttendanceBenchmarks {
+
+    @Param({"50", "200"})
+    private int people;
+
+    @Param({"6", "24"})
+    private int months;
+
+    private ConfigurableApplicationContext context;
+    private OverviewService overviewService;
+    private CheckService checkService;
+
+    private List<Person> persons;
+    private List<LocalDate> days;
+    private YearMonth yearMonth;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> uids = BenchmarkDatabase.seed(people, months, 42);
+        context = BenchmarkDatabase.start();
+        overviewService = context.getBean(OverviewService.class);
+        checkService = context.getBean(CheckService.class);
+
+        PersonRepository personRepository = context.getBean(PersonRepository.class);
+        persons = uids.stream().map(personRepository::findByUid).collect(Collectors.toList());
+        yearMonth = YearMonth.now().minusMonths(1);
+        days = new ArrayList<>();
+        for (int day = 1; day <= yearMonth.lengthOfMonth(); day++)
+            days.add(yearMonth.atDay(day));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<String> overviewDurations() {
+        return overviewService.getOverviewDurations(yearMonth, nextPerson());
+    }
+
+    @Benchmark
+    public Pair<Duration, Boolean> computeDayDuration() {
+        return checkService.computeDayDuration(nextPerson(), nextDay());
+    }
+
+    @Benchmark
+    public LocalTime avgCheckOutTime() {
+        return checkService.getAvgCheckOutTime(nextDay());
+    }
+
+    private Person nextPerson() {
+        return persons.get(next++ % persons.size());
+    }
+
+    private LocalDate nextDay() {
+        return days.get(next++ % days.size());
+    }
+}
@@ -0,0 +1,120 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.service.DayTotalService;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A local PostgreSQL database for benchmarks, separate from the development database. The database is created if it
+ * doesn't exist, configured by the environment variables {@code BENCHMARK_DATASOURCE_URL},
+ * {@code BENCHMARK_DATASOURCE_USERNAME} and {@code BENCHMARK_DATASOURCE_PASSWORD}.
+ * <p>
+ * The schema is migrated like the application does, so the benchmarks run with the same indexes. The day totals are
+ * built when the application starts.
+ */
+@Slf4j
+public class BenchmarkDatabase {
+
+    public static final String URL = env("BENCHMARK_DATASOURCE_URL", "jdbc:postgresql://localhost:5432/checkin_benchmark");
+    public static final String USERNAME = env("BENCHMARK_DATASOURCE_USERNAME", "postgres");
+    public static final String PASSWORD = env("BENCHMARK_DATASOURCE_PASSWORD", "postgres");
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Creates the database if needed and fills it with the given number of people and their checks of the given
+     * number of months until yesterday. Returns the uids of the generated people.
+     */
+    public static List<String> seed(int people, int months, long seed) {
+        createDatabase();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(URL, USERNAME, PASSWORD);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersionAsString("0");
+        flyway.migrate();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(URL, USERNAME, PASSWORD));
+
+        LocalDate to = LocalDate.now().minusDays(1);
+        DataGenerator generator = new DataGenerator(jdbcTemplate, seed);
+        generator.generate(people, to.minusMonths(months).plusDays(1), to);
+        return generator.getUids();
+    }
+
+    /**
+     * Starts the application without web server, mails and tracing on the benchmark database.
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        return start(false, properties);
+    }
+
+    /**
+     * Starts the application like {@link #start(String...)}, but with a web server on a random port.
+     */
+    public static ConfigurableApplicationContext startServer(String... properties) {
+        return start(true, properties);
+    }
+
+    private static ConfigurableApplicationContext start(boolean web, String... properties) {
+        // passed as arguments, since default properties can't override application.properties
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--spring.datasource.url=" + URL,
+                "--spring.datasource.username=" + USERNAME,
+                "--spring.datasource.password=" + PASSWORD,
+                "--checkin.mail.enabled=false",
+                "--checkin.aop.enabled=false",
+                "--checkin.sql.headers=false",
+                "--server.port=0",
+                "--checkin.dayTotals.backfillOnStartup=false",
+                "--logging.level.at.refugeescode=INFO"));
+        for (String property : properties)
+            args.add("--" + property);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(web)
+                .run(args.toArray(new String[args.size()]));
+        backfill(context);
+        return context;
+    }
+
+    /**
+     * Builds the day totals before measuring anything, instead of in the background like the application does.
+     */
+    private static void backfill(ConfigurableApplicationContext context) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        Timestamp first = jdbcTemplate.queryForObject("SELECT MIN(time) FROM checkin", Timestamp.class);
+        if (first == null || jdbcTemplate.queryForObject("SELECT COUNT(*) FROM day_total", Long.class) > 0)
+            return;
+
+        long start = System.currentTimeMillis();
+        int count = context.getBean(DayTotalService.class).rebuild(first.toLocalDateTime().toLocalDate(), LocalDate.now());
+        log.info("Built {} day totals in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    private static void createDatabase() {
+        int slash = URL.lastIndexOf('/');
+        int query = URL.indexOf('?', slash);
+        String name = URL.substring(slash + 1, query < 0 ? URL.length() : query);
+        String serverUrl = URL.substring(0, slash + 1) + "postgres" + (query < 0 ? "" : URL.substring(query));
+
+        JdbcTemplate server = new JdbcTemplate(new DriverManagerDataSource(serverUrl, USERNAME, PASSWORD));
+        if (server.queryForObject("SELECT COUNT(*) FROM pg_database WHERE datname = ?", Integer.class, name) == 0)
+            server.execute("CREATE DATABASE \"" + name + "\"");
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
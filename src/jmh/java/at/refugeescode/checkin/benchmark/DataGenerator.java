@@ -0,0 +1,125 @@
+package at.refugeescode.checkin.benchmark;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fills the {@code person} and {@code checkin} tables with reproducible, realistic attendance data:
+ * <ul>
+ * <li>people check in on most weekdays in the morning and check out in the afternoon,</li>
+ * <li>weekends are mostly off,</li>
+ * <li>some check-outs are forgotten and closed by the automatic check-out at midnight,</li>
+ * <li>a few people are disabled.</li>
+ * </ul>
+ * Existing people, checks and day totals are deleted first.
+ */
+@Slf4j
+public class DataGenerator {
+
+    private static final String[] FIRST_NAMES = {"Abdul", "Amina", "Ahmad", "Fatima", "Hassan", "Layla", "Mohammad",
+            "Nour", "Omar", "Rania", "Samir", "Yasmin", "Ali", "Zainab", "Karim", "Mariam", "Tarek", "Huda"};
+    private static final String[] LAST_NAMES = {"Al Hassan", "Haddad", "Khalil", "Mansour", "Nasser", "Rahimi",
+            "Saleh", "Yousef", "Hosseini", "Karimi", "Ahmadi", "Ibrahim", "Jaber", "Darwish"};
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Random random;
+
+    private long nextId = 1;
+
+    @Getter
+    private final List<String> uids = new ArrayList<>();
+    @Getter
+    private int checks;
+
+    public DataGenerator(JdbcTemplate jdbcTemplate, long seed) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates the given number of people with their checks from the first to the last day (both inclusive).
+     */
+    public void generate(int people, LocalDate from, LocalDate to) {
+        long start = System.currentTimeMillis();
+        jdbcTemplate.execute("TRUNCATE checkin, person CASCADE");
+
+        List<Object[]> personRows = new ArrayList<>();
+        for (int i = 0; i < people; i++) {
+            String uid = String.format("%d,%d,%d,%d", random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256), i);
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " +
+                    LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            boolean disabled = random.nextInt(20) == 0;
+            personRows.add(new Object[]{nextId++, name, uid, disabled, "person" + i + "@example.com"});
+            uids.add(uid);
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO person (id, name, uid, disabled, email) VALUES (?, ?, ?, ?, ?)", personRows);
+
+        List<Object[]> checkRows = new ArrayList<>();
+        for (Object[] person : personRows) {
+            generateChecks((Long) person[0], from, to, checkRows);
+            if (checkRows.size() >= BATCH_SIZE)
+                flushChecks(checkRows);
+        }
+        flushChecks(checkRows);
+        jdbcTemplate.execute("SELECT setval('hibernate_sequence', " + nextId + ")");
+
+        log.info("Generated {} people with {} checks from {} to {} in {} ms",
+                people, checks, from, to, System.currentTimeMillis() - start);
+    }
+
+    private void generateChecks(long personId, LocalDate from, LocalDate to, List<Object[]> rows) {
+        // every person has their own habits
+        double attendance = 0.6 + random.nextDouble() * 0.35;
+        int arrival = 8 * 60 + random.nextInt(120);
+        int stay = 4 * 60 + random.nextInt(240);
+
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            boolean weekend = day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY;
+            if (random.nextDouble() >= (weekend ? 0.03 : attendance))
+                continue;
+
+            int checkInMinute = clamp(arrival + (int) (random.nextGaussian() * 30), 6 * 60, 13 * 60);
+            LocalDateTime checkIn = day.atStartOfDay().plusMinutes(checkInMinute).plusSeconds(random.nextInt(60));
+            rows.add(check(personId, checkIn, true, false));
+
+            if (random.nextInt(25) == 0) {
+                // forgotten check-out, closed by the automatic check-out
+                rows.add(check(personId, day.plusDays(1).atStartOfDay(), false, true));
+            }
+            else {
+                int checkOutMinute = clamp(checkInMinute + stay + (int) (random.nextGaussian() * 60),
+                        checkInMinute + 15, 23 * 60 + 59);
+                LocalDateTime checkOut = day.atStartOfDay().plusMinutes(checkOutMinute).plusSeconds(random.nextInt(60));
+                rows.add(check(personId, checkOut, false, false));
+            }
+        }
+    }
+
+    private Object[] check(long personId, LocalDateTime time, boolean checkedIn, boolean auto) {
+        checks++;
+        return new Object[]{nextId++, auto, checkedIn, Timestamp.valueOf(time), personId};
+    }
+
+    private void flushChecks(List<Object[]> rows) {
+        if (rows.isEmpty())
+            return;
+        jdbcTemplate.batchUpdate("INSERT INTO checkin (id, auto, checked_in, time, person_id) VALUES (?, ?, ?, ?, ?)", rows);
+        rows.clear();
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,53 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.service.OverviewService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the formatting helpers used for every cell of the overview and every person of the summaries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattingBenchmarks {
+
+    private final Duration[] durations = {
+            Duration.ZERO, Duration.ofSeconds(59), Duration.ofMinutes(7).plusSeconds(30),
+            Duration.ofHours(8).plusMinutes(42).plusSeconds(1), Duration.ofHours(37).plusMillis(1)
+    };
+
+    private final Person person = new Person("12,34,56,78", "Mohammad Abdul Al Hassan", "person@example.com");
+
+    private int next;
+
+    @Benchmark
+    public long ceilMinutes() {
+        return OverviewService.ceilMinutes(nextDuration());
+    }
+
+    @Benchmark
+    public String formatDuration() {
+        return OverviewService.formatDuration(nextDuration());
+    }
+
+    @Benchmark
+    public String formatEstimatedDuration() {
+        return OverviewService.formatDuration(nextDuration(), true);
+    }
+
+    @Benchmark
+    public String shortName() {
+        return person.getShortName();
+    }
+
+    private Duration nextDuration() {
+        return durations[next++ % durations.length];
+    }
+}
@@ -0,0 +1,254 @@
+package at.refugeescode.checkin.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.util.StreamUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a mix of kiosk taps and dashboard polls against the application and reports throughput and latency
+ * percentiles per endpoint, on the console and in {@code target/load-result.json}.
+ * <p>
+ * Options, e.g. {@code mvn -P load verify -DskipTests -Dload.args="--generate --people=500 --years=5"}:
+ * <ul>
+ * <li>{@code --generate} fills the benchmark database with {@code --people} (100) people and {@code --years} (1)
+ * years of checks first, see {@link BenchmarkDatabase},</li>
+ * <li>{@code --url} runs against an already started application instead of starting one on the benchmark
+ * database,</li>
+ * <li>{@code --threads} (8), {@code --warmup} (10) and {@code --duration} (60 seconds) shape the load,</li>
+ * <li>{@code --admin} and {@code --client} are the credentials as user:password (admin: and client:),</li>
+ * <li>{@code --seed} (42) makes runs repeatable.</li>
+ * </ul>
+ */
+@Slf4j
+public class LoadHarness {
+
+    /**
+     * The endpoints and their share of the requests. Kiosks tap people in and out, dashboards poll the summaries,
+     * and now and then an admin opens the monthly overview.
+     */
+    private enum Endpoint {
+        CHECKIN(20), PUBLIC_SUMMARY(40), CLIENT_SUMMARY(30), OVERVIEW(10);
+
+        private final int weight;
+
+        Endpoint(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final String url;
+    private final String admin;
+    private final String client;
+    private final List<String> uids;
+    private final int threads;
+    private final long seed;
+
+    private final Map<Endpoint, Recorder> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> errors = new EnumMap<>(Endpoint.class);
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    public LoadHarness(String url, String admin, String client, List<String> uids, int threads, long seed) {
+        this.url = url;
+        this.admin = admin;
+        this.client = client;
+        this.uids = uids;
+        this.threads = threads;
+        this.seed = seed;
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new Recorder(3));
+            errors.put(endpoint, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        int people = Integer.parseInt(option(options, "people", "100"));
+        int years = Integer.parseInt(option(options, "years", "1"));
+        long seed = Long.parseLong(option(options, "seed", "42"));
+
+        if (options.containsProperty("generate"))
+            BenchmarkDatabase.seed(people, years * 12, seed);
+
+        ConfigurableApplicationContext context = null;
+        String url = options.getProperty("url");
+        if (url == null) {
+            context = BenchmarkDatabase.startServer();
+            url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            String client = option(options, "client", "client:");
+            LoadHarness harness = new LoadHarness(url, option(options, "admin", "admin:"), client,
+                    enabledUids(url, client), Integer.parseInt(option(options, "threads", "8")), seed);
+            Map<String, Map<String, Object>> report = harness.run(
+                    Integer.parseInt(option(options, "warmup", "10")), Integer.parseInt(option(options, "duration", "60")));
+
+            File result = new File("target/load-result.json");
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(result, report);
+            log.info("Load result is saved to {}", result.getAbsolutePath());
+        }
+        finally {
+            if (context != null)
+                context.close();
+        }
+    }
+
+    /**
+     * Runs the load for the warmup and the measured duration and returns the statistics per endpoint of the
+     * measured duration.
+     */
+    public Map<String, Map<String, Object>> run(int warmupSeconds, int durationSeconds) throws InterruptedException {
+        log.info("Running {} threads against {} with {} people for {} s after {} s warmup",
+                threads, url, uids.size(), durationSeconds, warmupSeconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            Random random = new Random(seed + i);
+            executor.execute(() -> {
+                while (running)
+                    request(pick(random), random);
+            });
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        latencies.values().forEach(Recorder::reset);
+        errors.values().forEach(LongAdder::reset);
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        Map<String, Map<String, Object>> report = new LinkedHashMap<>();
+        System.out.printf("%n%-16s %8s %8s %10s %9s %9s %9s %9s%n",
+                "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (Endpoint endpoint : Endpoint.values()) {
+            Histogram histogram = latencies.get(endpoint).getIntervalHistogram();
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("requests", histogram.getTotalCount());
+            statistics.put("errors", errors.get(endpoint).sum());
+            statistics.put("throughput", histogram.getTotalCount() / seconds);
+            statistics.put("p50", millis(histogram.getValueAtPercentile(50)));
+            statistics.put("p95", millis(histogram.getValueAtPercentile(95)));
+            statistics.put("p99", millis(histogram.getValueAtPercentile(99)));
+            statistics.put("max", millis(histogram.getMaxValue()));
+            report.put(endpoint.name(), statistics);
+            System.out.printf("%-16s %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", endpoint, histogram.getTotalCount(),
+                    errors.get(endpoint).sum(), histogram.getTotalCount() / seconds, statistics.get("p50"),
+                    statistics.get("p95"), statistics.get("p99"), statistics.get("max"));
+        }
+        return report;
+    }
+
+    /**
+     * Returns the uids of the people that kiosks can tap in, as listed by the client summary.
+     */
+    private static List<String> enabledUids(String url, String client) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + "/client/summary").openConnection();
+        connection.setRequestProperty("Authorization", basic(client));
+        List<String> uids = new ArrayList<>();
+        try (InputStream body = connection.getInputStream()) {
+            for (JsonNode person : new ObjectMapper().readTree(body))
+                if (!person.path("disabled").asBoolean())
+                    uids.add(person.path("uid").asText());
+        }
+        if (uids.isEmpty())
+            throw new IllegalStateException("There are no enabled people to tap in, run with --generate first.");
+        return uids;
+    }
+
+    private static Endpoint pick(Random random) {
+        int total = Arrays.stream(Endpoint.values()).mapToInt(endpoint -> endpoint.weight).sum();
+        int value = random.nextInt(total);
+        for (Endpoint endpoint : Endpoint.values()) {
+            value -= endpoint.weight;
+            if (value < 0)
+                return endpoint;
+        }
+        throw new IllegalStateException();
+    }
+
+    private void request(Endpoint endpoint, Random random) {
+        String path;
+        String credentials = admin;
+        switch (endpoint) {
+            case CHECKIN:
+                path = "/people/" + uids.get(random.nextInt(uids.size())) + "/checkin";
+                break;
+            case PUBLIC_SUMMARY:
+                path = "/public/summary";
+                credentials = null;
+                break;
+            case CLIENT_SUMMARY:
+                path = "/client/summary";
+                credentials = client;
+                break;
+            default:
+                path = "/overview/" + YearMonth.now().minusMonths(random.nextInt(3));
+        }
+
+        long start = System.nanoTime();
+        boolean failed;
+        try {
+            failed = get(path, credentials) >= 400;
+        }
+        catch (IOException e) {
+            failed = true;
+        }
+        long nanos = System.nanoTime() - start;
+
+        if (recording) {
+            latencies.get(endpoint).recordValue(nanos);
+            if (failed)
+                errors.get(endpoint).increment();
+        }
+    }
+
+    private int get(String path, String credentials) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        if (credentials != null) {
+            connection.setRequestProperty("Authorization", basic(credentials));
+        }
+        int status = connection.getResponseCode();
+        // read the body completely, so the connection can be kept alive
+        try (InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (body != null)
+                StreamUtils.drain(body);
+        }
+        return status;
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+}
@@ -1,11 +1,14 @@
 package at.refugeescode.checkin.config;
 
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
 import org.springframework.boot.autoconfigure.cache.JCacheManagerCustomizer;
+import org.springframework.cache.jcache.JCacheCacheManager;
+import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import javax.cache.CacheManager;
 import javax.cache.configuration.MutableConfiguration;
-import javax.cache.expiry.AccessedExpiryPolicy;
+import javax.cache.expiry.CreatedExpiryPolicy;
 import javax.cache.expiry.Duration;
 import java.util.concurrent.TimeUnit;
 
@@ -16,9 +19,19 @@ import java.util.concurrent.TimeUnit;
 public class CachingSetup implements JCacheManagerCustomizer {
     @Override
     public void customize(CacheManager cacheManager) {
-        cacheManager.createCache("dayDurations", new MutableConfiguration<>()
-                .setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(new Duration(TimeUnit.DAYS, 1)))
-                .setStoreByValue(false)
+        // people are entities, so every caller gets its own copy that it may modify and save
+        cacheManager.createCache("people", new MutableConfiguration<>()
+                .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.HOURS, 1)))
+                .setStoreByValue(true)
                 .setStatisticsEnabled(true));
     }
-}
\ No newline at end of file
+
+    /**
+     * Defers puts and evictions until the surrounding transaction commits, so a rolled back write doesn't evict
+     * and an uncommitted read doesn't populate the caches.
+     */
+    @Bean
+    public CacheManagerCustomizer<JCacheCacheManager> transactionAwareCacheManager() {
+        return cacheManager -> cacheManager.setTransactionAware(true);
+    }
+}
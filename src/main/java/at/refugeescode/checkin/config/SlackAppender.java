@@ -1,11 +1,15 @@
 package at.refugeescode.checkin.config;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.PatternLayout;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.boolex.EvaluationException;
 import ch.qos.logback.core.boolex.EventEvaluator;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import net.gpedro.integrations.slack.SlackApi;
@@ -13,6 +17,25 @@ import net.gpedro.integrations.slack.SlackMessage;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Posts events to a Slack webhook without blocking the logging thread.
+ * <p>
+ * Events are formatted on the logging thread and put into a bounded queue. A background worker drains the queue and
+ * posts up to {@code batchSize} messages at once. If the queue is full, either the oldest queued or the new message
+ * is dropped, depending on the {@code overflowPolicy}. Stopping the appender flushes the queue for up to
+ * {@code flushTimeout} milliseconds.
+ */
 @Getter
 @Setter
 public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
@@ -28,15 +51,38 @@ public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         DEFAULT_LAYOUT.setPattern("%-5level [%thread]: %message%n");
     }
 
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST
+    }
+
     private String webhookURL;
     private String channel;
     private String username;
     private String icon;
     private Layout<ILoggingEvent> layout = DEFAULT_LAYOUT;
     private EventEvaluator<ILoggingEvent> evaluator;
+    private int queueSize = 256;
+    private int batchSize = 20;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long flushTimeout = 5000;
 
     private SlackApi slackApi;
 
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private BlockingQueue<String> queue;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Thread worker;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile boolean stopping;
+
+    // exposed as plain numbers by the getters below and served at /slack-statistics
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
     @Override
     public void start() {
         if (evaluator == null) {
@@ -49,21 +95,137 @@ public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
             return;
         }
 
+        if (queueSize < 1 || batchSize < 1) {
+            addError("queueSize and batchSize of the appender '" + name + "' must be positive.");
+            return;
+        }
+
         slackApi = new SlackApi(webhookURL);
+        queue = new ArrayBlockingQueue<>(queueSize);
+        stopping = false;
+        worker = new Thread(this::drain, "slack-appender-" + name);
+        worker.setDaemon(true);
+        worker.start();
         super.start();
     }
 
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+
+        super.stop();
+        stopping = true;
+        try {
+            worker.join(flushTimeout);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            worker.interrupt();
+            addWarn("Appender '" + name + "' dropped " + queue.size() + " messages that could not be flushed in time.");
+            droppedCount.addAndGet(queue.size());
+        }
+    }
+
     @Override
     protected void append(ILoggingEvent event) {
         try {
-            if (evaluator.evaluate(event)) {
-                String text = layout.doLayout(event);
-                SlackMessage message = new SlackMessage(channel, username, text).setIcon(icon);
-                slackApi.call(message);
-            }
+            if (evaluator.evaluate(event))
+                enqueue(layout.doLayout(event));
         } catch (EvaluationException ex) {
             addError("Exception in appender '" + name + "'.", ex);
         }
     }
 
-}
\ No newline at end of file
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("queued", queue == null ? 0 : queue.size());
+        statistics.put("sent", getSentCount());
+        statistics.put("dropped", getDroppedCount());
+        statistics.put("failed", getFailedCount());
+        return statistics;
+    }
+
+    /**
+     * Returns the statistics of every Slack appender attached to a logger of the given context, by appender name.
+     */
+    public static Map<String, Map<String, Object>> getStatistics(LoggerContext context) {
+        Map<String, Map<String, Object>> statistics = new TreeMap<>();
+        for (Logger logger : context.getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> appenders = logger.iteratorForAppenders(); appenders.hasNext(); ) {
+                Appender<ILoggingEvent> appender = appenders.next();
+                if (appender instanceof SlackAppender)
+                    statistics.put(appender.getName(), ((SlackAppender) appender).getStatistics());
+            }
+        }
+        return statistics;
+    }
+
+    private void enqueue(String text) {
+        if (queue.offer(text))
+            return;
+
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            // another thread may take the freed slot, in which case the new message is dropped as well
+            while (!queue.offer(text)) {
+                if (queue.poll() != null)
+                    droppedCount.incrementAndGet();
+            }
+        }
+        else {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                post(batch);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void post(List<String> batch) {
+        StringBuilder text = new StringBuilder();
+        for (String message : batch) {
+            text.append(message);
+            if (!message.endsWith("\n"))
+                text.append('\n');
+        }
+        try {
+            slackApi.call(new SlackMessage(channel, username, text.toString()).setIcon(icon));
+            sentCount.addAndGet(batch.size());
+        }
+        catch (RuntimeException e) {
+            failedCount.addAndGet(batch.size());
+            addError("Failed to post " + batch.size() + " messages to Slack in appender '" + name + "'.", e);
+        }
+    }
+
+}
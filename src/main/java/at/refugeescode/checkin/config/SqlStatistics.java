@@ -0,0 +1,52 @@
+package at.refugeescode.checkin.config;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the SQL statements run by the current thread between {@link #begin()} and {@link #end()}, together with
+ * the time spent executing them, and by the threads the counting is {@link #resume resumed} on. Statements are
+ * recorded by {@link StatementCountingDataSource}.
+ */
+@Getter
+public final class SqlStatistics {
+
+    private static final ThreadLocal<SqlStatistics> CURRENT = new ThreadLocal<>();
+
+    private int statements;
+    private long nanos;
+
+    private SqlStatistics() {
+    }
+
+    public static SqlStatistics begin() {
+        SqlStatistics statistics = new SqlStatistics();
+        CURRENT.set(statistics);
+        return statistics;
+    }
+
+    /**
+     * Continues counting on the current thread, e.g. on the thread of an async request after the request thread
+     * is done.
+     */
+    public static void resume(SqlStatistics statistics) {
+        CURRENT.set(statistics);
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    static void record(long nanos) {
+        SqlStatistics statistics = CURRENT.get();
+        if (statistics != null) {
+            statistics.statements++;
+            statistics.nanos += nanos;
+        }
+    }
+
+    public long getMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,96 @@
+package at.refugeescode.checkin.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Wraps the connections of a data source, so every executed statement is recorded in the {@link SqlStatistics} of
+ * the current thread, whether it was run by Hibernate or by a {@code JdbcTemplate}.
+ */
+public class StatementCountingDataSource extends DelegatingDataSource {
+
+    public StatementCountingDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return countingConnection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return countingConnection(super.getConnection(username, password));
+    }
+
+    private static Connection countingConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(StatementCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (isEqualsOrHashCode(method))
+                        return method.getName().equals("equals") ? proxy == args[0] : System.identityHashCode(proxy);
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType()))
+                        return countingStatement((Statement) result, method.getReturnType());
+                    return result;
+                });
+    }
+
+    private static Object countingStatement(Statement statement, Class<?> statementType) {
+        return Proxy.newProxyInstance(StatementCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{statementType}, (proxy, method, args) -> {
+                    if (isEqualsOrHashCode(method))
+                        return method.getName().equals("equals") ? proxy == args[0] : System.identityHashCode(proxy);
+                    if (!method.getName().startsWith("execute"))
+                        return invoke(statement, method, args);
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(statement, method, args);
+                    }
+                    finally {
+                        SqlStatistics.record(System.nanoTime() - start);
+                    }
+                });
+    }
+
+    private static boolean isEqualsOrHashCode(Method method) {
+        return method.getName().equals("equals") && method.getParameterCount() == 1 ||
+                method.getName().equals("hashCode") && method.getParameterCount() == 0;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Wraps the application's data sources.
+     */
+    @Component
+    public static class Wrapper implements BeanPostProcessor {
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource && !(bean instanceof StatementCountingDataSource))
+                return new StatementCountingDataSource((DataSource) bean);
+            return bean;
+        }
+    }
+}
@@ -2,16 +2,20 @@ package at.refugeescode.checkin.config;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.apache.commons.lang3.StringUtils;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.hibernate.LazyInitializationException;
 import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.annotation.Value;
@@ -20,17 +24,36 @@ import org.springframework.util.StopWatch;
 
 import javax.annotation.PostConstruct;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 @Aspect
 @Component
 @Slf4j
-@ToString
+@ToString(exclude = {"metricsByMethod", "metricsByName"})
 @Getter
 @Setter
 public class TracingAspect {
 
+    public enum Mode {
+        /**
+         * Log every call with its arguments, return value and execution time on level TRACE.
+         */
+        TRACE,
+        /**
+         * Record the execution times of the calls in a latency histogram per method.
+         */
+        METRICS
+    }
+
     /*-------------------------------------*\
      * Fields
     \*-------------------------------------*/
@@ -41,12 +64,27 @@ public class TracingAspect {
     @Value("${checkin.aop.enabled:false}")
     private boolean enabled;
 
+    @Value("${checkin.aop.mode:TRACE}")
+    private Mode mode;
+
+    /**
+     * The fraction of calls whose execution time is recorded in metrics mode. Calls and errors are always counted.
+     */
+    @Value("${checkin.aop.sampleRate:1.0}")
+    private double sampleRate;
+
     @Value("${checkin.aop.prettyPrint:false}")
     private boolean prettyPrint;
 
     @Value("${checkin.aop.maxStringLength:100}")
     private int maxStringLength;
 
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<List<Object>, MethodMetrics> metricsByMethod = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, MethodMetrics> metricsByName = new ConcurrentHashMap<>();
+
     /*-------------------------------------*\
      * Boilerplate
     \*-------------------------------------*/
@@ -56,6 +94,24 @@ public class TracingAspect {
         log.info("{}", this);
     }
 
+    /*-------------------------------------*\
+     * Metrics
+    \*-------------------------------------*/
+
+    /**
+     * Returns the call counts and latency percentiles in milliseconds of all methods called since the last reset,
+     * ordered by method name.
+     */
+    public Map<String, Map<String, Object>> getMethodStatistics() {
+        Map<String, Map<String, Object>> statistics = new TreeMap<>();
+        metricsByName.forEach((name, metrics) -> statistics.put(name, metrics.getStatistics()));
+        return statistics;
+    }
+
+    public void resetMethodStatistics() {
+        metricsByName.values().forEach(MethodMetrics::reset);
+    }
+
     /*-------------------------------------*\
      * Pointcuts
     \*-------------------------------------*/
@@ -176,7 +232,10 @@ public class TracingAspect {
     }
 
     private Object profileMethod(ProceedingJoinPoint joinPoint) throws Throwable {
-        if (isEnabled() && log.isTraceEnabled()) {
+        if (isEnabled() && mode == Mode.METRICS) {
+            return recordMethod(joinPoint);
+        }
+        else if (isEnabled() && log.isTraceEnabled()) {
             StopWatch stopWatch = new StopWatch();
             Object returnValue = "[no return value obtained]";
             try {
@@ -207,6 +266,34 @@ public class TracingAspect {
         }
     }
 
+    private Object recordMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+        MethodMetrics metrics = getMethodMetrics(joinPoint);
+        boolean sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        long start = sampled ? System.nanoTime() : 0;
+        boolean failed = true;
+        try {
+            Object returnValue = joinPoint.proceed();
+            failed = false;
+            return returnValue;
+        }
+        finally {
+            metrics.record(sampled ? System.nanoTime() - start : -1, failed);
+        }
+    }
+
+    private MethodMetrics getMethodMetrics(ProceedingJoinPoint joinPoint) {
+        // the target class is part of the key, because repositories share the methods of their interfaces
+        Object target = joinPoint.getTarget();
+        List<Object> key = Arrays.asList(target == null ? null : target.getClass(),
+                ((MethodSignature) joinPoint.getSignature()).getMethod());
+        MethodMetrics metrics = metricsByMethod.get(key);
+        if (metrics == null) {
+            metrics = metricsByMethod.computeIfAbsent(key, k ->
+                    metricsByName.computeIfAbsent(getTargetAndMethodName(joinPoint), name -> new MethodMetrics()));
+        }
+        return metrics;
+    }
+
     private String cleanToString(Object object) {
         // call String.valueOf twice to handle objects that return literal null in their toString() method
         String stringValue = String.valueOf(String.valueOf(object));
@@ -220,4 +307,52 @@ public class TracingAspect {
             return StringUtils.abbreviate(singleLine, maxStringLength);
     }
 
-}
\ No newline at end of file
+    /**
+     * Counts the calls of a method and records their execution times in nanoseconds. Recording is wait-free, the
+     * recorded values are moved to the accumulated histogram when the statistics are read.
+     */
+    private static class MethodMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram accumulated = new Histogram(3);
+        private Histogram interval;
+
+        void record(long nanos, boolean failed) {
+            calls.increment();
+            if (failed)
+                errors.increment();
+            if (nanos >= 0)
+                recorder.recordValue(nanos);
+        }
+
+        synchronized Map<String, Object> getStatistics() {
+            interval = recorder.getIntervalHistogram(interval);
+            accumulated.add(interval);
+
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("calls", calls.sum());
+            statistics.put("errors", errors.sum());
+            statistics.put("sampled", accumulated.getTotalCount());
+            statistics.put("mean", millis(accumulated.getMean()));
+            statistics.put("p50", millis(accumulated.getValueAtPercentile(50)));
+            statistics.put("p95", millis(accumulated.getValueAtPercentile(95)));
+            statistics.put("p99", millis(accumulated.getValueAtPercentile(99)));
+            statistics.put("max", millis(accumulated.getMaxValue()));
+            return statistics;
+        }
+
+        synchronized void reset() {
+            calls.reset();
+            errors.reset();
+            interval = recorder.getIntervalHistogram(interval);
+            accumulated.reset();
+        }
+
+        private static double millis(double nanos) {
+            return Math.round(nanos / TimeUnit.MILLISECONDS.toNanos(1) * 1000) / 1000.0;
+        }
+    }
+
+}
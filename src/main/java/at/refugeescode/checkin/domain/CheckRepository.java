@@ -3,9 +3,12 @@ package at.refugeescode.checkin.domain;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +21,8 @@ public interface CheckRepository extends JpaRepository<Check, Long> {
 
     Optional<Check> findFirstByPersonAndTimeBeforeOrderByTimeDesc(Person person, LocalDateTime end);
 
+    Optional<Check> findFirstByPersonAndTimeAfterOrderByTime(Person person, LocalDateTime start);
+
     Optional<Check> findFirstByCheckedInFalseAndPersonAndTimeBetweenOrderByTimeDesc(Person person, LocalDateTime start, LocalDateTime end);
 
     List<Check> findByPerson(Person person);
@@ -32,4 +37,55 @@ public interface CheckRepository extends JpaRepository<Check, Long> {
 
     List<Check> findByCheckedInFalseAndAutoFalseAndTimeBetweenOrderByTimeDesc(LocalDateTime start, LocalDateTime end);
 
+    Optional<Check> findFirstByOrderByTime();
+
+    /**
+     * Returns the checks of the person between start and end (both inclusive) together with the person's last
+     * check(s) before start, in chronological order.
+     */
+    @Query("SELECT c FROM Check c WHERE c.person = :person AND c.time <= :end AND c.time >= COALESCE(" +
+            "(SELECT MAX(b.time) FROM Check b WHERE b.person = :person AND b.time < :start), :start) " +
+            "ORDER BY c.time, c.id")
+    List<Check> findWithLastBeforeByPersonAndTimeBetween(@Param("person") Person person,
+                                                         @Param("start") LocalDateTime start,
+                                                         @Param("end") LocalDateTime end);
+
+    /**
+     * Returns the checks of the people since start together with each person's last check(s) before start, in
+     * chronological order.
+     */
+    @Query("SELECT c FROM Check c WHERE c.person IN :people AND (c.time >= :start OR (c.person.id, c.time) IN " +
+            "(SELECT b.person.id, MAX(b.time) FROM Check b WHERE b.person IN :people AND b.time < :start " +
+            "GROUP BY b.person.id)) ORDER BY c.time, c.id")
+    List<Check> findWithLastBeforeByPersonInAndTimeFrom(@Param("people") Collection<Person> people,
+                                                        @Param("start") LocalDateTime start);
+
+    @Query("SELECT c FROM Check c JOIN FETCH c.person WHERE c.time BETWEEN :start AND :end ORDER BY c.time")
+    List<Check> findWithPersonByTimeBetweenOrderByTime(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    /**
+     * Returns the last check before end of every person.
+     */
+    @Query("SELECT c FROM Check c JOIN FETCH c.person WHERE (c.person.id, c.time) IN " +
+            "(SELECT b.person.id, MAX(b.time) FROM Check b WHERE b.time < :end GROUP BY b.person.id)")
+    List<Check> findLastChecksBefore(@Param("end") LocalDateTime end);
+
+    /**
+     * Returns the latest check of every person. Checks sharing the latest time of a person are all returned.
+     */
+    @Query("SELECT c FROM Check c JOIN FETCH c.person WHERE (c.person.id, c.time) IN " +
+            "(SELECT b.person.id, MAX(b.time) FROM Check b GROUP BY b.person.id)")
+    List<Check> findLatestChecks();
+
+    /**
+     * Returns the earliest and latest check-out time of every enabled person on every day between start and end
+     * (both inclusive) as rows of {@code [person_id, day, min_time, max_time]}.
+     */
+    @Query(value = "SELECT c.person_id, CAST(c.time AS DATE) AS day, MIN(c.time) AS min_time, MAX(c.time) AS max_time " +
+            "FROM checkin c JOIN person p ON p.id = c.person_id " +
+            "WHERE c.checked_in = FALSE AND p.disabled = FALSE AND c.time BETWEEN :start AND :end " +
+            "GROUP BY c.person_id, CAST(c.time AS DATE)",
+            nativeQuery = true)
+    List<Object[]> findCheckOutTimesPerPersonAndDay(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
 }
@@ -0,0 +1,34 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Published by {@link at.refugeescode.checkin.service.CheckService} within the transaction that created the checks.
+ * Existing checks whose state was corrected by late taps are included as well.
+ */
+@AllArgsConstructor
+@Getter
+public class ChecksCreatedEvent {
+
+    protected List<Check> checks;
+    /**
+     * Existing checks that kept their state but now follow a created check, so their durations changed.
+     */
+    protected List<Check> followingChecks;
+    /**
+     * Checks that were deleted, like automatic check-outs made obsolete by a late check-out.
+     */
+    protected List<Check> removedChecks;
+
+    public ChecksCreatedEvent(List<Check> checks) {
+        this(checks, Collections.emptyList());
+    }
+
+    public ChecksCreatedEvent(List<Check> checks, List<Check> followingChecks) {
+        this(checks, followingChecks, Collections.emptyList());
+    }
+}
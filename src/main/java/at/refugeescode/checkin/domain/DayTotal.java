@@ -0,0 +1,44 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Duration;
+import java.time.LocalDate;
+
+/**
+ * Total checked-in duration of a person on a day, kept up to date by
+ * {@link at.refugeescode.checkin.service.DayTotalService} so reports don't have to recompute it from the raw checks.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString
+@Table(name = "day_total", uniqueConstraints = @UniqueConstraint(columnNames = {"person_id", "day"}),
+        indexes = @Index(name = "ix_day_total_day", columnList = "day"))
+public class DayTotal {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @NonNull
+    @ManyToOne(optional = false)
+    @JoinColumn(nullable = false)
+    private Person person;
+
+    @NonNull
+    @Column(nullable = false)
+    // mapped to a DATE column by hibernate-java8 instead of a timestamp by Jsr310JpaConverters
+    @Convert(disableConversion = true)
+    private LocalDate day;
+
+    @NonNull
+    @Column(nullable = false)
+    private Duration duration;
+
+    private boolean estimated;
+
+}
@@ -0,0 +1,43 @@
+package at.refugeescode.checkin.domain;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RepositoryRestResource(exported = false)
+public interface DayTotalRepository extends JpaRepository<DayTotal, Long> {
+
+    List<DayTotal> findByDayBetween(LocalDate from, LocalDate to);
+
+    List<DayTotal> findByPersonAndDayBetween(Person person, LocalDate from, LocalDate to);
+
+    List<DayTotal> findByPersonDisabledFalseAndDayBetween(LocalDate from, LocalDate to);
+
+    List<DayTotal> findByDayAndEstimatedTrue(LocalDate day);
+
+    /**
+     * Returns the total duration in nanoseconds of every person between from and to (both inclusive) as
+     * {@code [person_id, duration]}.
+     */
+    @Query(value = "SELECT person_id, SUM(duration) FROM day_total WHERE day BETWEEN :from AND :to GROUP BY person_id",
+            nativeQuery = true)
+    List<Object[]> sumDurationsByPerson(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    /**
+     * Same as {@link #sumDurationsByPerson(LocalDate, LocalDate)}, but only for enabled users.
+     */
+    @Query(value = "SELECT d.person_id, SUM(d.duration) FROM day_total d JOIN person p ON p.id = d.person_id " +
+            "WHERE p.disabled = FALSE AND d.day BETWEEN :from AND :to GROUP BY d.person_id",
+            nativeQuery = true)
+    List<Object[]> sumDurationsByEnabledPerson(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    @Modifying
+    @Query("DELETE FROM DayTotal d WHERE d.person = :person")
+    void deleteByPerson(@Param("person") Person person);
+
+}
@@ -0,0 +1,17 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published by {@link at.refugeescode.checkin.service.PersonService} within the transaction that changed the people.
+ */
+@AllArgsConstructor
+@Getter
+public class PeopleChangedEvent {
+
+    protected List<Person> people;
+
+}
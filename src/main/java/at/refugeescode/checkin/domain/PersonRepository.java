@@ -1,13 +1,19 @@
 package at.refugeescode.checkin.domain;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 import java.util.List;
 
+/**
+ * Lookups by uid are cached, every write evicts the whole cache since uids can change.
+ */
 @RepositoryRestResource(collectionResourceRel = "people", path = "people")
 public interface PersonRepository extends JpaRepository<Person, Long> {
 
+    @Cacheable(cacheNames = "people", unless = "#result == null")
     Person findByUid(String uid);
 
     List<Person> findByOrderByName();
@@ -16,4 +22,40 @@ public interface PersonRepository extends JpaRepository<Person, Long> {
 
     List<Person> findByDisabledFalseAndNameIsNotLike(String nameNotLike);
 
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    <S extends Person> S save(S person);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    <S extends Person> List<S> save(Iterable<S> people);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    <S extends Person> S saveAndFlush(S person);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void delete(Long id);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void delete(Person person);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void delete(Iterable<? extends Person> people);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void deleteAll();
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void deleteInBatch(Iterable<Person> people);
+
+    @Override
+    @CacheEvict(cacheNames = "people", allEntries = true)
+    void deleteAllInBatch();
+
 }
@@ -0,0 +1,23 @@
+package at.refugeescode.checkin.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A created check as pushed to dashboards. The uid is left out of the public stream.
+ */
+@AllArgsConstructor
+@Getter
+public class CheckEvent {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    protected String uid;
+    protected String name;
+    protected boolean checkedIn;
+    protected boolean auto;
+    protected LocalDateTime time;
+
+}
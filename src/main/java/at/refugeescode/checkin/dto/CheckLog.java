@@ -0,0 +1,20 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+@AllArgsConstructor
+@Getter
+public class CheckLog {
+
+    protected Long id;
+    protected boolean checkedIn;
+    protected boolean auto;
+    protected LocalDateTime time;
+    protected Duration duration;
+    protected String name;
+
+}
@@ -0,0 +1,18 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class IngestResult {
+
+    protected int received;
+    protected int created;
+    protected int corrected;
+    protected int ignored;
+    protected List<String> rejected;
+
+}
@@ -0,0 +1,18 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@AllArgsConstructor
+@Getter
+public class PersonStatus {
+
+    protected String uid;
+    protected String name;
+    protected boolean checkedIn;
+    protected Duration lastDuration;
+    protected boolean disabled;
+
+}
@@ -0,0 +1,21 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * The overviews of the months from the first to the last month, with the totals of every month and year per person.
+ */
+@AllArgsConstructor
+@Getter
+public class RangeOverview {
+
+    protected YearMonth from;
+    protected YearMonth to;
+    protected List<String> columns;
+    protected List<Attendance> totals;
+    protected List<Overview> months;
+}
@@ -0,0 +1,22 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A tap buffered by a kiosk, with the kiosk's time of the tap.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class TapEvent {
+
+    protected String uid;
+    protected LocalDateTime time;
+
+}
@@ -0,0 +1,96 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Optional;
+
+/**
+ * Moves the checks older than {@code checkin.archive.months} months to the {@link CheckArchive}, so the
+ * {@code checkin} table and its indexes stay small.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class ArchiveService {
+
+    @NonNull
+    private final CheckArchive checkArchive;
+    @NonNull
+    private final CheckRepository checkRepository;
+    @NonNull
+    private final DayTotalService dayTotalService;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.archive.months}")
+    private int months;
+
+    @Scheduled(cron = "${checkin.archive.cron}")
+    public void archiveOldChecks() {
+        if (months > 0)
+            archive(getLatestBefore());
+    }
+
+    /**
+     * Returns the latest month whose previous months may be archived: the retention horizon, or the current month
+     * if archiving is disabled.
+     */
+    public YearMonth getLatestBefore() {
+        return YearMonth.now().minusMonths(months);
+    }
+
+    /**
+     * Archives the checks of all months before the given month, one transaction per month, and returns the number
+     * of archived checks. The day totals of these months are reconciled first, since they are all that is left to
+     * compute durations from.
+     */
+    public int archive(YearMonth before) {
+        // the archived months aren't refreshed while they are moved, another instance may have archived some already
+        synchronized (checkArchive) {
+            checkArchive.load();
+            return archiveMonths(before);
+        }
+    }
+
+    private int archiveMonths(YearMonth before) {
+        LocalDate boundary = before.atDay(1);
+        Optional<Check> firstCheck = checkRepository.findFirstByOrderByTime();
+        if (!firstCheck.isPresent() || checkArchive.isArchived(boundary.minusDays(1)))
+            return 0;
+
+        LocalDate from = firstCheck.get().getTime().toLocalDate();
+        if (checkArchive.isArchived(from))
+            from = checkArchive.getArchivedBefore();
+        if (!from.isBefore(boundary))
+            return 0;
+
+        long start = System.currentTimeMillis();
+        dayTotalService.reconcile(from, boundary.minusDays(1));
+
+        int count = 0;
+        for (YearMonth month = YearMonth.from(from); month.isBefore(before); month = month.plusMonths(1)) {
+            // the month is read from both tables from now on, so it is complete while its checks are moved
+            checkArchive.setArchivedBefore(month.plusMonths(1).atDay(1));
+            YearMonth archivedMonth = month;
+            int moved = new TransactionTemplate(transactionManager).execute(status ->
+                    checkArchive.moveMonth(archivedMonth, boundary));
+            log.debug("Archived {} checks of {}", moved, month);
+            count += moved;
+        }
+
+        log.info("Archived {} checks before {} in {} ms", count, boundary, System.currentTimeMillis() - start);
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.Person;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * The {@code checkin_archive} table, which holds the checks of the months before {@link #getArchivedBefore()}.
+ * <p>
+ * Archived days are answered from their day totals, and the few queries that need raw checks of archived months
+ * read the {@code checkin_all} view of both tables. Every person's latest check before the archived months stays
+ * in {@code checkin}, so durations since then and the {@link CheckStatusIndex} don't need the archive.
+ * <p>
+ * The archived months are read from the database on startup and every {@code checkin.archive.refresh} ms, so every
+ * instance follows the months archived by another one.
+ */
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class CheckArchive {
+
+    private static final String LAST_ARCHIVED = "SELECT MAX(time) FROM checkin_archive";
+    private static final String MOVE_MONTH = "WITH moved AS (" +
+            "DELETE FROM checkin c WHERE c.time >= ? AND c.time < ? AND (c.person_id, c.time) NOT IN " +
+            "(SELECT person_id, MAX(time) FROM checkin WHERE time < ? GROUP BY person_id) " +
+            "RETURNING c.id, c.auto, c.checked_in, c.time, c.person_id) " +
+            "INSERT INTO checkin_archive (id, auto, checked_in, time, person_id) " +
+            "SELECT id, auto, checked_in, time, person_id FROM moved";
+    private static final String SELECT_CHECKS_WITH_LAST_BEFORE = "SELECT id, auto, checked_in, time FROM checkin_all " +
+            "WHERE person_id = ? AND time <= ? AND time >= COALESCE(" +
+            "(SELECT MAX(time) FROM checkin_all WHERE person_id = ? AND time < ?), ?) ORDER BY time, id";
+    private static final String SELECT_CHECK_OUT_TIMES = "SELECT c.person_id, CAST(c.time AS DATE) AS day, " +
+            "MIN(c.time) AS min_time, MAX(c.time) AS max_time FROM checkin_all c JOIN person p ON p.id = c.person_id " +
+            "WHERE c.checked_in = FALSE AND p.disabled = FALSE AND c.time BETWEEN ? AND ? " +
+            "GROUP BY c.person_id, CAST(c.time AS DATE)";
+    private static final String SELECT_DAY_TOTAL = "SELECT duration, estimated FROM day_total WHERE person_id = ? AND day = ?";
+    private static final String DELETE_PERSON = "DELETE FROM checkin_archive WHERE person_id = ?";
+
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The first day that isn't archived, {@link LocalDate#MIN} as long as nothing is archived.
+     */
+    @Getter
+    private volatile LocalDate archivedBefore = LocalDate.MIN;
+
+    /**
+     * Synchronized with {@link ArchiveService#archive}, which moves the boundary ahead of its commits.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Scheduled(fixedDelayString = "${checkin.archive.refresh}")
+    public synchronized void load() {
+        Timestamp lastArchived = jdbcTemplate.queryForObject(LAST_ARCHIVED, Timestamp.class);
+        LocalDate loaded = lastArchived == null ? LocalDate.MIN :
+                YearMonth.from(lastArchived.toLocalDateTime()).plusMonths(1).atDay(1);
+        if (!loaded.equals(archivedBefore))
+            log.info("Checks are archived before {}", loaded);
+        archivedBefore = loaded;
+    }
+
+    public boolean isArchived(LocalDate day) {
+        return day.isBefore(archivedBefore);
+    }
+
+    public boolean isArchived(LocalDateTime time) {
+        return time.isBefore(archivedBefore.atStartOfDay());
+    }
+
+    /**
+     * Moves the checks of the month to the archive, except for every person's latest check before the given day,
+     * and returns the number of moved checks.
+     */
+    int moveMonth(YearMonth month, LocalDate keepLatestBefore) {
+        return jdbcTemplate.update(MOVE_MONTH, Timestamp.valueOf(month.atDay(1).atStartOfDay()),
+                Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()),
+                Timestamp.valueOf(keepLatestBefore.atStartOfDay()));
+    }
+
+    void setArchivedBefore(LocalDate archivedBefore) {
+        this.archivedBefore = archivedBefore;
+    }
+
+    /**
+     * Same as {@link at.refugeescode.checkin.domain.CheckRepository#findWithLastBeforeByPersonAndTimeBetween}, but
+     * including archived checks.
+     */
+    public List<Check> findWithLastBeforeByPersonAndTimeBetween(Person person, LocalDateTime start, LocalDateTime end) {
+        return jdbcTemplate.query(SELECT_CHECKS_WITH_LAST_BEFORE, (rs, i) -> {
+            Check check = new Check(person, rs.getTimestamp("time").toLocalDateTime(), rs.getBoolean("checked_in"),
+                    rs.getBoolean("auto"));
+            check.setId(rs.getLong("id"));
+            return check;
+        }, person.getId(), Timestamp.valueOf(end), person.getId(), Timestamp.valueOf(start), Timestamp.valueOf(start));
+    }
+
+    /**
+     * Same as {@link at.refugeescode.checkin.domain.CheckRepository#findCheckOutTimesPerPersonAndDay}, but including
+     * archived checks.
+     */
+    public List<Object[]> findCheckOutTimesPerPersonAndDay(LocalDateTime start, LocalDateTime end) {
+        return jdbcTemplate.query(SELECT_CHECK_OUT_TIMES, (rs, i) -> new Object[]{
+                rs.getLong("person_id"), rs.getDate("day"), rs.getTimestamp("min_time"), rs.getTimestamp("max_time")
+        }, Timestamp.valueOf(start), Timestamp.valueOf(end));
+    }
+
+    /**
+     * Returns the day duration of an archived day from its day total.
+     */
+    public Pair<Duration, Boolean> getDayDuration(Person person, LocalDate day) {
+        List<Pair<Duration, Boolean>> dayTotals = jdbcTemplate.query(SELECT_DAY_TOTAL,
+                (rs, i) -> Pair.of(Duration.ofNanos(rs.getLong("duration")), rs.getBoolean("estimated")),
+                person.getId(), Date.valueOf(day));
+        return dayTotals.isEmpty() ? Pair.of(Duration.ZERO, false) : dayTotals.get(0);
+    }
+
+    public void deleteByPerson(Person person) {
+        jdbcTemplate.update(DELETE_PERSON, person.getId());
+    }
+}
@@ -2,29 +2,43 @@ package at.refugeescode.checkin.service;
 
 import at.refugeescode.checkin.domain.Check;
 import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
 import at.refugeescode.checkin.domain.Person;
 import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.CheckLog;
+import at.refugeescode.checkin.dto.IngestResult;
+import at.refugeescode.checkin.dto.TapEvent;
+import at.refugeescode.checkin.service.CheckStatusIndex.LatestCheck;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.OptionalDouble;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
@@ -39,15 +53,46 @@ public class CheckService {
 
     private static final String NEW_USER_PREFIX = "new-user-";
 
+    private static final String NEXT_IDS = "SELECT nextval('hibernate_sequence') FROM generate_series(1, ?)";
+    private static final String LOCK_UID = "SELECT 1 FROM pg_advisory_xact_lock(?)";
+    private static final HashFunction UID_HASH = Hashing.murmur3_128();
+    private static final String INSERT_TAP = "INSERT INTO checkin (id, person_id, time, checked_in, auto) " +
+            "VALUES (?, ?, ?, ?, FALSE)";
+    private static final String INSERT_AUTO_CHECK_OUT = "INSERT INTO checkin (id, person_id, time, checked_in, auto) " +
+            "VALUES (?, ?, ?, FALSE, TRUE)";
+
     @NonNull
     private final CheckRepository checkRepository;
     @NonNull
     private final PersonRepository personRepository;
     @NonNull
     private final MailService mailService;
+    @NonNull
+    private final ApplicationEventPublisher eventPublisher;
+    @NonNull
+    private final CheckStatusIndex checkStatusIndex;
+    @NonNull
+    private final CheckArchive checkArchive;
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
 
     @Value("${checkin.mail.webmaster}")
     private String webmaster;
+    @Value("${checkin.tap.debounce}")
+    private long debounce;
+    @Value("${checkin.tap.clockSkew}")
+    private long clockSkew;
+    @Value("${checkin.tap.lockStripes}")
+    private int lockStripes;
+
+    private Striped<Lock> uidLocks;
+
+    @PostConstruct
+    public void init() {
+        uidLocks = Striped.lock(lockStripes);
+    }
 
     @Transactional(readOnly = true)
     public Optional<Check> lastCheck(Person person) {
@@ -64,14 +109,16 @@ public class CheckService {
         return checkRepository.findFirstByCheckedInFalseAndPersonAndTimeBetweenOrderByTimeDesc(person, start, end);
     }
 
-    @Transactional(readOnly = true)
+    public Optional<LatestCheck> lastStatus(Person person) {
+        return checkStatusIndex.get(person);
+    }
+
     public boolean isCheckedIn(Person person) {
-        return lastCheck(person).map(Check::isCheckedIn).orElse(false);
+        return lastStatus(person).map(LatestCheck::isCheckedIn).orElse(false);
     }
 
-    @Transactional(readOnly = true)
     public boolean isAuto(Person person) {
-        return lastCheck(person).map(Check::isAuto).orElse(false);
+        return lastStatus(person).map(LatestCheck::isAuto).orElse(false);
     }
 
     @Transactional(readOnly = true)
@@ -81,6 +128,37 @@ public class CheckService {
         return before.isPresent() ? Duration.between(before.get().getTime(), time) : Duration.ZERO;
     }
 
+    /**
+     * Returns the checks of the person between start and end (both inclusive), latest first, each with its
+     * {@link #getDuration(Check) duration}, from a single query.
+     */
+    @Transactional(readOnly = true)
+    public List<CheckLog> getCheckLog(Person person, LocalDateTime start, LocalDateTime end) {
+        List<CheckLog> checkLog = new ArrayList<>();
+        LocalDateTime lastTime = null;
+        LocalDateTime timeBeforeLast = null;
+        List<Check> checks = checkArchive.isArchived(start) ?
+                checkArchive.findWithLastBeforeByPersonAndTimeBetween(person, start, end) :
+                checkRepository.findWithLastBeforeByPersonAndTimeBetween(person, start, end);
+        for (Check check : checks) {
+            LocalDateTime time = check.getTime();
+            // the duration lasts from the latest check strictly before this one
+            LocalDateTime before = lastTime != null && lastTime.isBefore(time) ? lastTime : timeBeforeLast;
+
+            if (!time.isBefore(start)) {
+                Duration duration = before != null ? Duration.between(before, time) : Duration.ZERO;
+                checkLog.add(new CheckLog(check.getId(), check.isCheckedIn(), check.isAuto(), time, duration, person.getName()));
+            }
+
+            if (lastTime == null || time.isAfter(lastTime)) {
+                timeBeforeLast = lastTime;
+                lastTime = time;
+            }
+        }
+        Collections.reverse(checkLog);
+        return checkLog;
+    }
+
     @Transactional(readOnly = true)
     public Duration getEstimatedDuration(Check check, LocalTime avgCheckOutTime) {
         LocalDateTime time = check.getTime();
@@ -92,34 +170,79 @@ public class CheckService {
 
     @Transactional(readOnly = true)
     public LocalTime getAvgCheckOutTime(LocalDate day) {
-        LocalDateTime startOfDay = day.atStartOfDay();
-        LocalDateTime startOfNextDay = day.plusDays(1).atStartOfDay();
+        return getAvgCheckOutTimes(day, day).get(day);
+    }
 
-        List<Person> enabledUsers = personRepository.findByDisabledFalse();
-        List<Check> lastCheckOuts = new ArrayList<>(enabledUsers.size());
-        for (Person person : enabledUsers) {
-            Optional<Check> lastCheckOut = lastCheckOut(person, startOfDay, startOfNextDay);
-            lastCheckOut.ifPresent(lastCheckOuts::add);
+    /**
+     * Computes the average time of the last check-out of all enabled users for every day between from and to
+     * (both inclusive) with a single grouped query. Days without any check-out map to {@link LocalTime#MAX}.
+     * <p>
+     * Like {@link #lastCheckOut(Person, LocalDateTime, LocalDateTime)}, a day includes a check-out at exactly
+     * midnight of the following day, which then is the last check-out of that day.
+     */
+    @Transactional(readOnly = true)
+    public Map<LocalDate, LocalTime> getAvgCheckOutTimes(LocalDate from, LocalDate to) {
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+
+        // person id -> day -> [first check-out time, last check-out time]
+        Map<Long, Map<LocalDate, LocalDateTime[]>> checkOutTimes = new HashMap<>();
+        List<Object[]> rows = checkArchive.isArchived(from) ?
+                checkArchive.findCheckOutTimesPerPersonAndDay(start, end) :
+                checkRepository.findCheckOutTimesPerPersonAndDay(start, end);
+        for (Object[] row : rows) {
+            Long personId = ((Number) row[0]).longValue();
+            LocalDate day = ((java.sql.Date) row[1]).toLocalDate();
+            LocalDateTime first = ((Timestamp) row[2]).toLocalDateTime();
+            LocalDateTime last = ((Timestamp) row[3]).toLocalDateTime();
+            checkOutTimes.computeIfAbsent(personId, id -> new HashMap<>()).put(day, new LocalDateTime[]{first, last});
         }
 
-        OptionalDouble avgSecondsOfDayOptional = lastCheckOuts.stream()
-                .mapToInt(check -> check.getTime().toLocalTime().toSecondOfDay())
-                .average();
+        Map<LocalDate, LocalTime> avgCheckOutTimes = new LinkedHashMap<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            LocalDateTime startOfNextDay = day.plusDays(1).atStartOfDay();
+
+            List<LocalDateTime> lastCheckOuts = new ArrayList<>(checkOutTimes.size());
+            for (Map<LocalDate, LocalDateTime[]> personCheckOutTimes : checkOutTimes.values()) {
+                LocalDateTime[] today = personCheckOutTimes.get(day);
+                LocalDateTime[] nextDay = personCheckOutTimes.get(day.plusDays(1));
+                if (nextDay != null && nextDay[0].equals(startOfNextDay))
+                    lastCheckOuts.add(nextDay[0]);
+                else if (today != null)
+                    lastCheckOuts.add(today[1]);
+            }
+
+            OptionalDouble avgSecondsOfDayOptional = lastCheckOuts.stream()
+                    .mapToInt(time -> time.toLocalTime().toSecondOfDay())
+                    .average();
+
+            LocalTime avgCheckOutTime;
+            if (avgSecondsOfDayOptional.isPresent()) {
+                double avgSecondsOfDay = avgSecondsOfDayOptional.getAsDouble();
+                avgCheckOutTime = LocalTime.ofSecondOfDay((long) avgSecondsOfDay);
+            }
+            else
+                avgCheckOutTime = LocalTime.MAX;
 
-        LocalTime avgCheckOutTime;
-        if (avgSecondsOfDayOptional.isPresent()) {
-            double avgSecondsOfDay = avgSecondsOfDayOptional.getAsDouble();
-            avgCheckOutTime = LocalTime.ofSecondOfDay((long) avgSecondsOfDay);
+            avgCheckOutTimes.put(day, avgCheckOutTime);
         }
-        else
-            avgCheckOutTime = LocalTime.MAX;
 
-        return avgCheckOutTime;
+        return avgCheckOutTimes;
     }
 
     @Transactional(readOnly = true)
-    @Cacheable(cacheNames = {"dayDurations"}, key = "{ #person.uid, #day }")
     public Pair<Duration, Boolean> getDayDuration(Person person, LocalDate day) {
+        if (checkArchive.isArchived(day))
+            return checkArchive.getDayDuration(person, day);
+        return computeDayDuration(person, day);
+    }
+
+    /**
+     * Same as {@link #getDayDuration(Person, LocalDate)}, but always computed from the raw checks, which are gone
+     * for archived days.
+     */
+    @Transactional(readOnly = true)
+    public Pair<Duration, Boolean> computeDayDuration(Person person, LocalDate day) {
         LocalDateTime startOfDay = day.atStartOfDay();
         LocalDateTime startOfNextDay = day.plusDays(1).atStartOfDay();
 
@@ -143,48 +266,286 @@ public class CheckService {
         return Pair.of(totalDuration, estimated);
     }
 
-
-
-    @Transactional(readOnly = true)
     public Duration getLastCheckInTime(Person person) {
         LocalDateTime now = LocalDateTime.now();
-        Optional<LocalDateTime> lastTime = lastCheck(person).map(Check::getTime);
+        Optional<LocalDateTime> lastTime = lastStatus(person).map(LatestCheck::getTime);
         return lastTime.isPresent() ? Duration.between(lastTime.get(), now) : null;
     }
 
-    @Transactional(readOnly = false)
-    @CacheEvict(cacheNames = {"dayDurations"}, key = "{ #uid, T(java.time.LocalDate).now() }")
+    /**
+     * Records a tap of the given uid, creating a disabled placeholder person for unknown uids. Taps of the same uid
+     * are serialized, by a striped lock within this instance and an advisory lock in the database across instances,
+     * so each tap reads the state written by the previous one. A repeated tap within the debounce window returns the
+     * previous check instead of toggling the state again.
+     */
     public Check newCheck(String uid, boolean auto) {
-        Person person = personRepository.findByUid(uid);
+        Lock lock = uidLocks.get(uid);
+        lock.lock();
+        try {
+            return new TransactionTemplate(transactionManager).execute(status -> {
+                lockUid(uid);
+                Person person = findOrCreatePerson(uid);
+
+                Optional<Check> lastCheck = lastCheck(person);
+                LocalDateTime now = LocalDateTime.now();
+
+                if (lastCheck.isPresent() && !lastCheck.get().isAuto() &&
+                        lastCheck.get().getTime().isAfter(now.minus(debounce, ChronoUnit.MILLIS))) {
+                    log.debug("Ignoring repeated tap of {} within {} ms", uid, debounce);
+                    return lastCheck.get();
+                }
+
+                boolean checkedIn = lastCheck.map(check -> !check.isCheckedIn()).orElse(true);
+
+                Check check = new Check(person, now, checkedIn, auto);
+                check = checkRepository.save(check);
+                eventPublisher.publishEvent(new ChecksCreatedEvent(Collections.singletonList(check)));
+                return check;
+            });
+        }
+        finally {
+            lock.unlock();
+        }
+    }
 
-        if (person == null) {
-            String placeholder = NEW_USER_PREFIX + LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
-            Person newUser = new Person(uid, placeholder, placeholder);
-            newUser.setDisabled(true);
-            person = personRepository.save(newUser);
+    /**
+     * Records taps that kiosks buffered while they were offline, with the kiosks' times of the taps. The taps are
+     * merged in time order into each person's existing checks: every manual check toggles the state of the previous
+     * one, so the states of later checks are corrected where a late tap changes the sequence, and automatic
+     * check-outs of people a late tap already checked out are deleted. Taps within the debounce window of another
+     * tap, like retries of taps that already reached the server, are ignored. All new checks are inserted as one
+     * batch.
+     */
+    public IngestResult ingest(List<TapEvent> events) {
+        long start = System.nanoTime();
+        LocalDateTime latest = LocalDateTime.now().plus(clockSkew, ChronoUnit.MILLIS);
+
+        List<String> rejected = new ArrayList<>();
+        Map<String, SortedSet<LocalDateTime>> taps = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            TapEvent event = events.get(i);
+            if (event == null || event.getUid() == null || event.getUid().trim().isEmpty())
+                rejected.add(i + ": uid is missing");
+            else if (event.getTime() == null)
+                rejected.add(i + ": time is missing");
+            else if (event.getTime().isAfter(latest))
+                rejected.add(i + ": time " + event.getTime() + " is in the future");
+            else if (checkArchive.isArchived(event.getTime()))
+                rejected.add(i + ": time " + event.getTime() + " is archived");
+            else
+                taps.computeIfAbsent(event.getUid(), uid -> new TreeSet<>()).add(event.getTime());
         }
 
-        Optional<Check> lastCheck = lastCheck(person);
-        LocalDateTime now = LocalDateTime.now();
-        boolean checkedIn = lastCheck.map(check -> !check.isCheckedIn()).orElse(true);
+        // uids are locked in the same order by every batch, so concurrent batches can't deadlock
+        List<String> uids = new ArrayList<>(taps.keySet());
+        uids.sort(Comparator.comparingLong(CheckService::uidLockKey));
+
+        int[] counts = new TransactionTemplate(transactionManager).execute(status -> {
+            List<Check> created = new ArrayList<>();
+            List<Check> corrected = new ArrayList<>();
+            List<Check> following = new ArrayList<>();
+            List<Check> removed = new ArrayList<>();
+            Map<Long, Person> people = new LinkedHashMap<>();
+            LocalDateTime first = null;
+            for (String uid : uids) {
+                lockUid(uid);
+                Person person = findOrCreatePerson(uid);
+                people.put(person.getId(), person);
+                if (first == null || taps.get(uid).first().isBefore(first))
+                    first = taps.get(uid).first();
+            }
+
+            // the existing checks of all people are loaded at once, since the earliest tap of the batch
+            Map<Long, List<Check>> existing = new HashMap<>();
+            if (!people.isEmpty())
+                for (Check check : checkRepository.findWithLastBeforeByPersonInAndTimeFrom(people.values(), first))
+                    existing.computeIfAbsent(check.getPerson().getId(), id -> new ArrayList<>()).add(check);
+
+            for (Person person : people.values()) {
+                merge(person, taps.get(person.getUid()), existing.getOrDefault(person.getId(), Collections.emptyList()),
+                        created, corrected, following, removed);
+            }
+            if (created.isEmpty() && corrected.isEmpty() && removed.isEmpty())
+                return new int[]{0, 0};
+
+            if (!created.isEmpty()) {
+                // people created for unknown uids have to exist before their checks are inserted past Hibernate
+                personRepository.flush();
+                List<Long> ids = jdbcTemplate.queryForList(NEXT_IDS, Long.class, created.size());
+                List<Object[]> rows = new ArrayList<>(created.size());
+                for (int i = 0; i < created.size(); i++) {
+                    Check check = created.get(i);
+                    check.setId(ids.get(i));
+                    rows.add(new Object[]{check.getId(), check.getPerson().getId(), Timestamp.valueOf(check.getTime()),
+                            check.isCheckedIn()});
+                }
+                jdbcTemplate.batchUpdate(INSERT_TAP, rows);
+            }
+            checkRepository.delete(removed);
+
+            List<Check> checks = new ArrayList<>(created);
+            checks.addAll(corrected);
+            eventPublisher.publishEvent(new ChecksCreatedEvent(checks, following, removed));
+            return new int[]{created.size(), corrected.size() + removed.size()};
+        });
+
+        // every valid tap is either created or ignored as a repeated tap
+        IngestResult result = new IngestResult(events.size(), counts[0], counts[1],
+                events.size() - rejected.size() - counts[0], rejected);
+        log.info("Ingested {} taps: {} created, {} corrected, {} ignored, {} rejected in {} ms", result.getReceived(),
+                result.getCreated(), result.getCorrected(), result.getIgnored(), rejected.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Merges the given tap times into the person's existing checks, which include at least the last check before the
+     * first tap, and adds the new checks to created, the existing checks whose state changed to corrected, the
+     * other existing checks right after a new check, whose durations changed, to following and the automatic
+     * check-outs of people a new check already checked out to removed.
+     */
+    private void merge(Person person, SortedSet<LocalDateTime> times, List<Check> existing, List<Check> created,
+                       List<Check> corrected, List<Check> following, List<Check> removed) {
+        LocalDateTime first = times.first();
+
+        TreeSet<LocalDateTime> tapTimes = new TreeSet<>();
+        for (Check check : existing)
+            if (!check.isAuto())
+                tapTimes.add(check.getTime());
+        List<LocalDateTime> accepted = new ArrayList<>();
+        for (LocalDateTime time : times) {
+            if (isRepeatedTap(tapTimes.floor(time), time) || isRepeatedTap(time, tapTimes.ceiling(time))) {
+                log.debug("Ignoring repeated tap of {} at {}", person.getUid(), time);
+                continue;
+            }
+            tapTimes.add(time);
+            accepted.add(time);
+        }
+
+        boolean checkedIn = false;
+        int next = 0;
+        for (Check check : existing) {
+            boolean follows = false;
+            for (; next < accepted.size() && accepted.get(next).isBefore(check.getTime()); next++) {
+                checkedIn = !checkedIn;
+                created.add(new Check(person, accepted.get(next), checkedIn, false));
+                follows = true;
+            }
+
+            if (check.isAuto() && !checkedIn && !check.getTime().isBefore(first)) {
+                // a late check-out reached the server after the person was checked out automatically
+                removed.add(check);
+                continue;
+            }
+            if (check.isAuto() || check.getTime().isBefore(first)) {
+                checkedIn = check.isCheckedIn();
+            }
+            else {
+                checkedIn = !checkedIn;
+                if (check.isCheckedIn() != checkedIn) {
+                    check.setCheckedIn(checkedIn);
+                    corrected.add(check);
+                    continue;
+                }
+            }
+            if (follows)
+                following.add(check);
+        }
+        for (; next < accepted.size(); next++) {
+            checkedIn = !checkedIn;
+            created.add(new Check(person, accepted.get(next), checkedIn, false));
+        }
+    }
+
+    private boolean isRepeatedTap(LocalDateTime earlier, LocalDateTime later) {
+        return earlier != null && later != null && !later.isAfter(earlier.plus(debounce, ChronoUnit.MILLIS));
+    }
+
+    /**
+     * Locks the uid against concurrent taps until the transaction ends, also across application instances.
+     */
+    private void lockUid(String uid) {
+        jdbcTemplate.queryForObject(LOCK_UID, Integer.class, uidLockKey(uid));
+    }
+
+    private static long uidLockKey(String uid) {
+        return UID_HASH.hashString(uid, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Returns the person with the given uid, or a new, disabled placeholder person for unknown uids.
+     */
+    private Person findOrCreatePerson(String uid) {
+        Person person = personRepository.findByUid(uid);
+        if (person != null)
+            return person;
 
-        Check check = new Check(person, now, checkedIn, auto);
-        check = checkRepository.save(check);
-        return check;
+        String placeholder = NEW_USER_PREFIX + LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
+        Person newUser = new Person(uid, placeholder, placeholder);
+        newUser.setDisabled(true);
+        return personRepository.save(newUser);
     }
 
+    /**
+     * Checks out everyone who is still checked in: finds them with one query, inserts all automatic check-outs with
+     * the same time as one batch, and queues the notification mails in the same transaction. The uids of the people
+     * found are locked like taps before their latest checks are read again, so a tap in between isn't checked out.
+     */
     @Scheduled(cron = "${checkin.autoCheckOut}")
-    @Transactional(readOnly = false)
     public void autoCheckOut() {
-        List<Person> people = personRepository.findAll();
-        for (Person person : people) {
-            if (isCheckedIn(person)) {
-                newCheck(person.getUid(), true);
+        long start = System.nanoTime();
+
+        // a separate transaction, so the checks are read again from the database once the uids are locked
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        List<String> uids = readOnly.execute(status -> latestChecks().values().stream()
+                .filter(Check::isCheckedIn)
+                .map(check -> check.getPerson().getUid())
+                .sorted(Comparator.comparingLong(CheckService::uidLockKey))
+                .collect(Collectors.toList()));
+
+        List<Check> checkOuts = new TransactionTemplate(transactionManager).execute(status -> {
+            uids.forEach(this::lockUid);
+            Set<String> locked = new HashSet<>(uids);
+            // after every tap that got the locks before
+            LocalDateTime now = LocalDateTime.now();
+
+            List<Check> checks = new ArrayList<>();
+            for (Check latestCheck : latestChecks().values())
+                if (latestCheck.isCheckedIn() && locked.contains(latestCheck.getPerson().getUid()))
+                    checks.add(new Check(latestCheck.getPerson(), now, false, true));
+            if (checks.isEmpty())
+                return checks;
+
+            List<Long> ids = jdbcTemplate.queryForList(NEXT_IDS, Long.class, checks.size());
+            List<Object[]> rows = new ArrayList<>(checks.size());
+            for (int i = 0; i < checks.size(); i++) {
+                Check check = checks.get(i);
+                check.setId(ids.get(i));
+                rows.add(new Object[]{check.getId(), check.getPerson().getId(), Timestamp.valueOf(now)});
+            }
+            jdbcTemplate.batchUpdate(INSERT_AUTO_CHECK_OUT, rows);
+
+            eventPublisher.publishEvent(new ChecksCreatedEvent(checks));
 
+            // the mails are queued in the outbox within the same transaction as the check-outs
+            for (Check check : checks) {
+                Person person = check.getPerson();
                 mailService.sendMail(person, null, webmaster,
                         FORGOT_CHECK_OUT_SUBJECT,
                         String.format(FORGOT_CHECK_OUT_MESSAGE, person.getName()));
             }
-        }
+            return checks;
+        });
+
+        log.info("Automatically checked out {} people in {} ms", checkOuts.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private Map<Long, Check> latestChecks() {
+        Map<Long, Check> latestChecks = new HashMap<>();
+        for (Check check : checkRepository.findLatestChecks())
+            latestChecks.merge(check.getPerson().getId(), check, (a, b) -> a.getId() > b.getId() ? a : b);
+        return latestChecks;
     }
 }
@@ -0,0 +1,122 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
+import at.refugeescode.checkin.domain.Person;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of every person's latest check, so status lookups don't need to query the database.
+ * <p>
+ * The index is updated whenever a transaction that created checks commits. Entries are immutable and only ever
+ * replaced by newer ones, so reads are lock-free. Only writes of this instance are seen that way, so the index is
+ * also reloaded from the database on startup and every {@code checkin.statusIndex.refresh} ms, which picks up the
+ * checks of other instances and changes made past the application.
+ */
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class CheckStatusIndex {
+
+    @NonNull
+    private final CheckRepository checkRepository;
+
+    private final Map<Long, LatestCheck> latestChecks = new ConcurrentHashMap<>();
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Scheduled(fixedDelayString = "${checkin.statusIndex.refresh}")
+    public void load() {
+        long start = System.nanoTime();
+        Map<Long, LatestCheck> loaded = new HashMap<>();
+        for (Check check : checkRepository.findLatestChecks())
+            loaded.put(check.getPerson().getId(), new LatestCheck(check));
+
+        // entries written while the checks were read may be newer than what the query saw
+        Set<Long> personIds = new HashSet<>(latestChecks.keySet());
+        personIds.addAll(loaded.keySet());
+        for (Long personId : personIds)
+            latestChecks.compute(personId, (id, current) ->
+                    current != null && current.indexedAt - start > 0 ? current : loaded.get(id));
+        log.debug("Loaded the latest checks of {} people", loaded.size());
+    }
+
+    public Optional<LatestCheck> get(Person person) {
+        return Optional.ofNullable(latestChecks.get(person.getId()));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onChecksCreated(ChecksCreatedEvent event) {
+        for (Check check : event.getChecks())
+            update(check);
+        for (Check check : event.getRemovedChecks()) {
+            LatestCheck latestCheck = latestChecks.get(check.getPerson().getId());
+            if (latestCheck != null && latestCheck.getId().equals(check.getId()))
+                refresh(check.getPerson());
+        }
+    }
+
+    /**
+     * Reloads the latest check of the given person, e.g. after checks were changed or deleted.
+     */
+    public void refresh(Person person) {
+        Optional<Check> latestCheck = checkRepository.findFirstByPersonOrderByTimeDesc(person);
+        if (latestCheck.isPresent())
+            latestChecks.put(person.getId(), new LatestCheck(latestCheck.get()));
+        else
+            latestChecks.remove(person.getId());
+    }
+
+    public void evict(Person person) {
+        latestChecks.remove(person.getId());
+    }
+
+    private void update(Check check) {
+        latestChecks.merge(check.getPerson().getId(), new LatestCheck(check),
+                (current, candidate) -> candidate.isNewerThan(current) ? candidate : current);
+    }
+
+    @AllArgsConstructor
+    @Getter
+    @ToString(exclude = "indexedAt")
+    public static class LatestCheck {
+
+        private final Long id;
+        private final LocalDateTime time;
+        private final boolean checkedIn;
+        private final boolean auto;
+        @Getter(AccessLevel.NONE)
+        private final long indexedAt = System.nanoTime();
+
+        private LatestCheck(Check check) {
+            this(check.getId(), check.getTime(), check.isCheckedIn(), check.isAuto());
+        }
+
+        private boolean isNewerThan(LatestCheck other) {
+            // the same check replaces its entry, its state may have been corrected
+            int comparison = time.compareTo(other.time);
+            return comparison > 0 || comparison == 0 && id >= other.id;
+        }
+    }
+}
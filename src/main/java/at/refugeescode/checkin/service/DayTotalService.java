@@ -0,0 +1,320 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.*;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.*;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/**
+ * Maintains the {@link DayTotal} rollup of every person's daily durations.
+ * <p>
+ * The rollup is updated incrementally whenever checks are created. Estimated durations of other people depend on
+ * the average check-out time of the day, so a check-out also updates all estimated totals of its day. Changes
+ * the rollup can't follow incrementally, like enabling a user (which changes the average check-out time of past
+ * days), are repaired by the nightly reconciliation or a rebuild.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class DayTotalService {
+
+    private static final String UPSERT_DAY_TOTAL = "INSERT INTO day_total (id, person_id, day, duration, estimated) " +
+            "VALUES (nextval('hibernate_sequence'), ?, ?, ?, ?) " +
+            "ON CONFLICT (person_id, day) DO UPDATE SET duration = EXCLUDED.duration, estimated = EXCLUDED.estimated";
+    private static final String DELETE_DAY_TOTAL = "DELETE FROM day_total WHERE person_id = ? AND day = ?";
+    private static final String DELETE_DAY_TOTALS = "DELETE FROM day_total WHERE day BETWEEN ? AND ?";
+
+    @NonNull
+    private final DayTotalRepository dayTotalRepository;
+    @NonNull
+    private final CheckRepository checkRepository;
+    @NonNull
+    private final CheckService checkService;
+    @NonNull
+    private final CheckArchive checkArchive;
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.dayTotals.backfillOnStartup}")
+    private boolean backfillOnStartup;
+    @Value("${checkin.dayTotals.reconcileDays}")
+    private int reconcileDays;
+    @Value("${checkin.dayTotals.bulkThreshold}")
+    private int bulkThreshold;
+
+    @Transactional(readOnly = true)
+    public Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> getEnabledUsersDayDurations(LocalDate from, LocalDate to) {
+        Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> dayDurations = new HashMap<>();
+        for (DayTotal dayTotal : dayTotalRepository.findByPersonDisabledFalseAndDayBetween(from, to))
+            dayDurations.computeIfAbsent(dayTotal.getPerson().getId(), id -> new HashMap<>())
+                    .put(dayTotal.getDay(), Pair.of(dayTotal.getDuration(), dayTotal.isEstimated()));
+        return dayDurations;
+    }
+
+    @Transactional(readOnly = true)
+    public Duration getTotalDuration(Person person, LocalDate from, LocalDate to) {
+        return sumByPerson(dayTotalRepository.findByPersonAndDayBetween(person, from, to))
+                .getOrDefault(person.getId(), Duration.ZERO);
+    }
+
+    @Transactional(readOnly = true)
+    public Map<Long, Duration> getEnabledUsersTotalDurations(LocalDate from, LocalDate to) {
+        return toDurations(dayTotalRepository.sumDurationsByEnabledPerson(from, to));
+    }
+
+    @Transactional(readOnly = true)
+    public Map<Long, Duration> getTotalDurations(LocalDate from, LocalDate to) {
+        return toDurations(dayTotalRepository.sumDurationsByPerson(from, to));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    public void onChecksCreated(ChecksCreatedEvent event) {
+        List<Check> checks = new ArrayList<>(event.getChecks());
+        checks.addAll(event.getRemovedChecks());
+        updateDays(checks, event.getFollowingChecks());
+    }
+
+    /**
+     * Updates the day totals after the given checks were created, changed or deleted through the REST resources.
+     * The checks may be the earlier states of changed or deleted checks, so the checks following them are looked up
+     * here.
+     */
+    @Transactional
+    public void onChecksChanged(Collection<Check> checks) {
+        List<Check> following = new ArrayList<>();
+        for (Check check : checks)
+            checkRepository.findFirstByPersonAndTimeAfterOrderByTime(check.getPerson(), check.getTime())
+                    .ifPresent(following::add);
+        updateDays(checks, following);
+    }
+
+    private void updateDays(Collection<Check> checks, Collection<Check> followingChecks) {
+        checkRepository.flush();
+
+        TreeMap<LocalDate, Map<Long, Person>> affected = new TreeMap<>();
+        Set<LocalDate> checkOutDays = new TreeSet<>();
+        for (Check check : checks) {
+            for (LocalDate day : daysOf(check.getTime())) {
+                // the day totals of archived days are final
+                if (checkArchive.isArchived(day))
+                    continue;
+                affected.computeIfAbsent(day, d -> new LinkedHashMap<>()).put(check.getPerson().getId(), check.getPerson());
+                if (!check.isCheckedIn())
+                    checkOutDays.add(day);
+            }
+        }
+        // a check after a created one keeps its time, but its duration now starts at the created check
+        for (Check check : followingChecks)
+            for (LocalDate day : daysOf(check.getTime()))
+                if (!checkArchive.isArchived(day))
+                    affected.computeIfAbsent(day, d -> new LinkedHashMap<>()).put(check.getPerson().getId(), check.getPerson());
+
+        // a check-out changes the average check-out time and with it every estimated duration of the day
+        for (LocalDate day : checkOutDays)
+            for (DayTotal dayTotal : dayTotalRepository.findByDayAndEstimatedTrue(day))
+                affected.get(day).putIfAbsent(dayTotal.getPerson().getId(), dayTotal.getPerson());
+
+        int personDays = affected.values().stream().mapToInt(Map::size).sum();
+        if (personDays <= bulkThreshold) {
+            affected.forEach((day, people) -> people.values().forEach(person ->
+                    update(person.getId(), day, checkService.computeDayDuration(person, day))));
+            return;
+        }
+
+        // many days, e.g. of ingested taps, are computed by one sweep over all checks of the affected days
+        LocalDate from = affected.firstKey();
+        LocalDate to = affected.lastKey();
+        Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> dayDurations = compute(from, to);
+
+        List<Object[]> upserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        affected.forEach((day, people) -> people.keySet().forEach(personId -> {
+            Pair<Duration, Boolean> dayDuration = dayDurations.getOrDefault(personId, Collections.emptyMap()).get(day);
+            if (isEmpty(dayDuration))
+                deletes.add(new Object[]{personId, Date.valueOf(day)});
+            else
+                upserts.add(new Object[]{personId, Date.valueOf(day), dayDuration.getFirst().toNanos(), dayDuration.getSecond()});
+        }));
+        jdbcTemplate.batchUpdate(DELETE_DAY_TOTAL, deletes);
+        jdbcTemplate.batchUpdate(UPSERT_DAY_TOTAL, upserts);
+        log.debug("Updated {} day totals between {} and {}", personDays, from, to);
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!backfillOnStartup || dayTotalRepository.count() > 0)
+            return;
+
+        checkRepository.findFirstByOrderByTime().ifPresent(first -> {
+            log.info("Backfilling day totals since {}", first.getTime().toLocalDate());
+            rebuild(first.getTime().toLocalDate(), LocalDate.now());
+        });
+    }
+
+    /**
+     * Recomputes the day totals between from and to (both inclusive) from the raw checks, in one transaction per
+     * month, and returns the number of stored day totals. Archived days are skipped, their checks are gone.
+     */
+    public int rebuild(LocalDate from, LocalDate to) {
+        from = notArchived(from);
+        int count = 0;
+        for (Pair<LocalDate, LocalDate> month : months(from, to)) {
+            count += new TransactionTemplate(transactionManager).execute(status -> {
+                Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> dayDurations = compute(month.getFirst(), month.getSecond());
+
+                List<Object[]> rows = new ArrayList<>();
+                dayDurations.forEach((personId, days) -> days.forEach((day, dayDuration) -> {
+                    if (!isEmpty(dayDuration))
+                        rows.add(new Object[]{personId, Date.valueOf(day), dayDuration.getFirst().toNanos(), dayDuration.getSecond()});
+                }));
+
+                jdbcTemplate.update(DELETE_DAY_TOTALS, Date.valueOf(month.getFirst()), Date.valueOf(month.getSecond()));
+                jdbcTemplate.batchUpdate(UPSERT_DAY_TOTAL, rows);
+                return rows.size();
+            });
+        }
+        log.info("Rebuilt {} day totals between {} and {}", count, from, to);
+        return count;
+    }
+
+    @Scheduled(cron = "${checkin.dayTotals.reconcile}")
+    public void reconcileRecentDays() {
+        LocalDate today = LocalDate.now();
+        reconcile(today.minusDays(reconcileDays), today);
+    }
+
+    /**
+     * Compares the day totals between from and to (both inclusive) with the durations computed from the raw checks,
+     * repairs every day total that differs and returns the number of repaired day totals. Archived days are
+     * skipped.
+     */
+    public int reconcile(LocalDate from, LocalDate to) {
+        from = notArchived(from);
+        int count = 0;
+        for (Pair<LocalDate, LocalDate> month : months(from, to)) {
+            count += new TransactionTemplate(transactionManager).execute(status -> {
+                Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> expected = compute(month.getFirst(), month.getSecond());
+
+                Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> actual = new HashMap<>();
+                for (DayTotal dayTotal : dayTotalRepository.findByDayBetween(month.getFirst(), month.getSecond()))
+                    actual.computeIfAbsent(dayTotal.getPerson().getId(), id -> new HashMap<>())
+                            .put(dayTotal.getDay(), Pair.of(dayTotal.getDuration(), dayTotal.isEstimated()));
+
+                Set<Long> personIds = new HashSet<>(expected.keySet());
+                personIds.addAll(actual.keySet());
+
+                int repaired = 0;
+                for (Long personId : personIds) {
+                    Map<LocalDate, Pair<Duration, Boolean>> expectedDays = expected.getOrDefault(personId, Collections.emptyMap());
+                    Map<LocalDate, Pair<Duration, Boolean>> actualDays = actual.getOrDefault(personId, Collections.emptyMap());
+
+                    Set<LocalDate> days = new TreeSet<>(expectedDays.keySet());
+                    days.addAll(actualDays.keySet());
+
+                    for (LocalDate day : days) {
+                        Pair<Duration, Boolean> expectedDuration = expectedDays.get(day);
+                        Pair<Duration, Boolean> actualDuration = actualDays.get(day);
+                        if (isEmpty(expectedDuration) && actualDuration == null || Objects.equals(expectedDuration, actualDuration))
+                            continue;
+
+                        log.info("Day total of person {} on {} is {} instead of {}", personId, day, actualDuration, expectedDuration);
+                        update(personId, day, expectedDuration);
+                        repaired++;
+                    }
+                }
+                return repaired;
+            });
+        }
+
+        if (count > 0)
+            log.warn("Repaired {} day totals between {} and {}", count, from, to);
+        else
+            log.info("Day totals between {} and {} are consistent", from, to);
+        return count;
+    }
+
+    private Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> compute(LocalDate from, LocalDate to) {
+        Map<LocalDate, LocalTime> avgCheckOutTimes = checkService.getAvgCheckOutTimes(from, to);
+        Map<Long, DurationSweep> sweeps = new HashMap<>();
+
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+        List<Check> checks = new ArrayList<>(checkRepository.findLastChecksBefore(start));
+        checks.addAll(checkRepository.findWithPersonByTimeBetweenOrderByTime(start, end));
+        for (Check check : checks)
+            sweeps.computeIfAbsent(check.getPerson().getId(), id -> new DurationSweep(from, to, avgCheckOutTimes))
+                    .accept(check);
+
+        Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> dayDurations = new HashMap<>();
+        sweeps.forEach((personId, sweep) -> dayDurations.put(personId, sweep.getDayDurations()));
+        return dayDurations;
+    }
+
+    private void update(Long personId, LocalDate day, Pair<Duration, Boolean> dayDuration) {
+        if (isEmpty(dayDuration))
+            jdbcTemplate.update(DELETE_DAY_TOTAL, personId, Date.valueOf(day));
+        else
+            jdbcTemplate.update(UPSERT_DAY_TOTAL, personId, Date.valueOf(day), dayDuration.getFirst().toNanos(), dayDuration.getSecond());
+    }
+
+    private static boolean isEmpty(Pair<Duration, Boolean> dayDuration) {
+        return dayDuration == null || dayDuration.getFirst().isZero() && !dayDuration.getSecond();
+    }
+
+    private static Map<Long, Duration> sumByPerson(List<DayTotal> dayTotals) {
+        Map<Long, Duration> totals = new HashMap<>();
+        for (DayTotal dayTotal : dayTotals)
+            totals.merge(dayTotal.getPerson().getId(), dayTotal.getDuration(), Duration::plus);
+        return totals;
+    }
+
+    private static Map<Long, Duration> toDurations(List<Object[]> rows) {
+        Map<Long, Duration> totals = new HashMap<>();
+        for (Object[] row : rows)
+            totals.put(((Number) row[0]).longValue(), Duration.ofNanos(((Number) row[1]).longValue()));
+        return totals;
+    }
+
+    /**
+     * Returns the days a check at the given time counts for: its own day and, at exactly midnight, also the day before.
+     */
+    private static List<LocalDate> daysOf(LocalDateTime time) {
+        LocalDate day = time.toLocalDate();
+        return time.equals(day.atStartOfDay()) ? Arrays.asList(day.minusDays(1), day) : Collections.singletonList(day);
+    }
+
+    private LocalDate notArchived(LocalDate day) {
+        return checkArchive.isArchived(day) ? checkArchive.getArchivedBefore() : day;
+    }
+
+    private static List<Pair<LocalDate, LocalDate>> months(LocalDate from, LocalDate to) {
+        List<Pair<LocalDate, LocalDate>> months = new ArrayList<>();
+        for (LocalDate start = from; !start.isAfter(to); start = start.with(TemporalAdjusters.firstDayOfNextMonth())) {
+            LocalDate endOfMonth = start.with(TemporalAdjusters.lastDayOfMonth());
+            months.add(Pair.of(start, endOfMonth.isBefore(to) ? endOfMonth : to));
+        }
+        return months;
+    }
+}
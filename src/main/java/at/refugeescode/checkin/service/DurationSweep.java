@@ -0,0 +1,94 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import org.springframework.data.util.Pair;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sums up the check-out durations of a single person per day from the person's checks in chronological order,
+ * following the same rules as {@link CheckService#getDayDuration}:
+ * <ul>
+ * <li>a check-out lasts from the latest check strictly before it,</li>
+ * <li>an automatic check-out lasts until the average check-out time of the day and marks the day as estimated,</li>
+ * <li>a check-out at exactly midnight also belongs to the day before.</li>
+ * </ul>
+ * Only days between from and to (both inclusive) are summed up. To get the correct duration for the first
+ * check-out, the last check before from has to be fed to the sweep first.
+ */
+public class DurationSweep {
+
+    private static final Pair<Duration, Boolean> NO_DURATION = Pair.of(Duration.ZERO, false);
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Map<LocalDate, LocalTime> avgCheckOutTimes;
+
+    private final Map<LocalDate, Pair<Duration, Boolean>> dayDurations = new TreeMap<>();
+
+    private LocalDateTime lastTime;
+    private LocalDateTime timeBeforeLast;
+
+    public DurationSweep(LocalDate from, LocalDate to, Map<LocalDate, LocalTime> avgCheckOutTimes) {
+        this.from = from;
+        this.to = to;
+        this.avgCheckOutTimes = avgCheckOutTimes;
+    }
+
+    public void accept(Check check) {
+        accept(check.getTime(), check.isCheckedIn(), check.isAuto());
+    }
+
+    public void accept(LocalDateTime time, boolean checkedIn, boolean auto) {
+        if (lastTime != null && time.isBefore(lastTime))
+            throw new IllegalArgumentException("Checks must be accepted in chronological order");
+
+        LocalDateTime before = lastTime != null && lastTime.isBefore(time) ? lastTime : timeBeforeLast;
+
+        if (!checkedIn) {
+            LocalDate day = time.toLocalDate();
+            add(day, time, before, auto);
+            if (time.equals(day.atStartOfDay()))
+                add(day.minusDays(1), time, before, auto);
+        }
+
+        if (lastTime == null || time.isAfter(lastTime)) {
+            timeBeforeLast = lastTime;
+            lastTime = time;
+        }
+    }
+
+    public Pair<Duration, Boolean> getDayDuration(LocalDate day) {
+        return dayDurations.getOrDefault(day, NO_DURATION);
+    }
+
+    /**
+     * Returns the summed up durations of all days with at least one check-out, in chronological order.
+     */
+    public Map<LocalDate, Pair<Duration, Boolean>> getDayDurations() {
+        return dayDurations;
+    }
+
+    private void add(LocalDate day, LocalDateTime time, LocalDateTime before, boolean auto) {
+        if (day.isBefore(from) || day.isAfter(to))
+            return;
+
+        Duration duration;
+        if (auto) {
+            LocalDateTime avgCheckOutTimeToday = avgCheckOutTimes.get(day).atDate(time.toLocalDate());
+            duration = before != null && before.isBefore(avgCheckOutTimeToday) ?
+                    Duration.between(before, avgCheckOutTimeToday) : Duration.ZERO;
+        }
+        else {
+            duration = before != null ? Duration.between(before, time) : Duration.ZERO;
+        }
+
+        Pair<Duration, Boolean> dayDuration = getDayDuration(day);
+        dayDurations.put(day, Pair.of(dayDuration.getFirst().plus(duration), dayDuration.getSecond() || auto));
+    }
+}
@@ -0,0 +1,117 @@
+package at.refugeescode.checkin.service;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Writes checks and day durations of arbitrary ranges as CSV, row by row from a database cursor, so the heap use
+ * doesn't depend on the size of the range.
+ * <p>
+ * The checks include the archived ones. The day durations are the day totals, which {@link DayTotalService}
+ * computes with the rules of {@link CheckService#computeDayDuration}.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class ExportService {
+
+    private static final String SELECT_CHECKS = "SELECT c.time, p.uid, p.name, c.checked_in, c.auto " +
+            "FROM checkin_all c JOIN person p ON p.id = c.person_id " +
+            "WHERE c.time >= ? AND c.time < ? ORDER BY c.time, c.id";
+    private static final String SELECT_DAY_TOTALS = "SELECT d.day, p.uid, p.name, d.duration, d.estimated " +
+            "FROM day_total d JOIN person p ON p.id = d.person_id " +
+            "WHERE d.day BETWEEN ? AND ? ORDER BY d.day, p.name, p.id";
+
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.export.fetchSize}")
+    private int fetchSize;
+
+    /**
+     * Writes the checks between from and to (both inclusive), ordered by time.
+     */
+    public int exportChecks(LocalDate from, LocalDate to, Writer writer) throws IOException {
+        writer.write("time,uid,name,checkedIn,auto\r\n");
+        return export(SELECT_CHECKS, writer, rs -> row(writer, rs.getTimestamp("time").toLocalDateTime(),
+                rs.getString("uid"), rs.getString("name"), rs.getBoolean("checked_in"), rs.getBoolean("auto")),
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+    }
+
+    /**
+     * Writes the durations per person and day between from and to (both inclusive), ordered by day. Days without
+     * a duration are left out.
+     */
+    public int exportDayDurations(LocalDate from, LocalDate to, Writer writer) throws IOException {
+        writer.write("day,uid,name,seconds,estimated\r\n");
+        return export(SELECT_DAY_TOTALS, writer, rs -> row(writer, rs.getDate("day").toLocalDate(),
+                rs.getString("uid"), rs.getString("name"), Duration.ofNanos(rs.getLong("duration")).getSeconds(),
+                rs.getBoolean("estimated")), Date.valueOf(from), Date.valueOf(to));
+    }
+
+    private int export(String sql, Writer writer, RowCallbackHandler rowWriter, Object... parameters) throws IOException {
+        long start = System.currentTimeMillis();
+        int[] count = {0};
+        try {
+            // PostgreSQL only fetches from a cursor instead of all rows at once within a transaction
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setReadOnly(true);
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.query(con -> {
+                    PreparedStatement statement = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                            ResultSet.CONCUR_READ_ONLY);
+                    statement.setFetchSize(fetchSize);
+                    for (int i = 0; i < parameters.length; i++)
+                        statement.setObject(i + 1, parameters[i]);
+                    return statement;
+                }, (RowCallbackHandler) rs -> {
+                    rowWriter.processRow(rs);
+                    count[0]++;
+                });
+                return null;
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        log.debug("Exported {} rows in {} ms", count[0], System.currentTimeMillis() - start);
+        return count[0];
+    }
+
+    private static void row(Writer writer, Object... values) {
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    writer.write(',');
+                writer.write(StringEscapeUtils.escapeCsv(Objects.toString(values[i], "")));
+            }
+            writer.write("\r\n");
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -2,26 +2,47 @@ package at.refugeescode.checkin.service;
 
 import at.refugeescode.checkin.domain.Person;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.validator.internal.constraintvalidators.hv.EmailValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Sends mails through a database-backed outbox.
+ * <p>
+ * {@code sendMail} only writes the mail to the {@code mail_outbox} table, within the caller's transaction if there
+ * is one. The dispatcher claims due mails in batches with {@code FOR UPDATE SKIP LOCKED}, so several instances can
+ * drain the outbox without sending a mail twice. A claim pushes the next attempt of the claimed mails out by the
+ * claim timeout, so mails of an instance that died while sending are retried afterwards. Failed mails are retried
+ * with exponential backoff and marked as dead after {@code checkin.mail.maxAttempts} attempts, sent mails are
+ * deleted.
+ */
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 @Slf4j
@@ -33,8 +54,26 @@ public class MailService {
 
     private static final EmailValidator emailValidator = new EmailValidator();
 
+    private static final String INSERT_MAIL = "INSERT INTO mail_outbox " +
+            "(id, sender, recipient, reply_to, bcc, subject, text, status, attempts, next_attempt_at, created_at) " +
+            "VALUES (nextval('hibernate_sequence'), ?, ?, ?, ?, ?, ?, 'PENDING', 0, ?, ?)";
+    private static final String CLAIM_MAILS = "UPDATE mail_outbox SET attempts = attempts + 1, next_attempt_at = ? " +
+            "WHERE id IN (SELECT id FROM mail_outbox WHERE status = 'PENDING' AND next_attempt_at <= ? " +
+            "ORDER BY next_attempt_at, id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, sender, recipient, reply_to, bcc, subject, text, attempts";
+    private static final String DELETE_MAIL = "DELETE FROM mail_outbox WHERE id = ?";
+    private static final String RETRY_MAIL = "UPDATE mail_outbox SET next_attempt_at = ?, last_error = ? WHERE id = ?";
+    private static final String KILL_MAIL = "UPDATE mail_outbox SET status = 'DEAD', last_error = ? WHERE id = ?";
+    private static final String COUNT_MAILS = "SELECT COUNT(*) FROM mail_outbox WHERE status = ?";
+
+    private static final RowMapper<OutboxMail> OUTBOX_MAIL_MAPPER = (rs, rowNum) -> new OutboxMail(
+            rs.getLong("id"), rs.getString("sender"), rs.getString("recipient"), rs.getString("reply_to"),
+            rs.getString("bcc"), rs.getString("subject"), rs.getString("text"), rs.getInt("attempts"));
+
     @NonNull
     private final JavaMailSender mailSender;
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
 
     @Value("${checkin.mail.enabled}")
     private boolean enabled;
@@ -44,22 +83,36 @@ public class MailService {
     private boolean debug;
     @Value("${checkin.mail.webmaster}")
     private String webmaster;
+    @Value("${checkin.mail.batchSize}")
+    private int batchSize;
+    @Value("${checkin.mail.concurrency}")
+    private int concurrency;
+    @Value("${checkin.mail.rateLimit}")
+    private double rateLimit;
+    @Value("${checkin.mail.maxAttempts}")
+    private int maxAttempts;
+    @Value("${checkin.mail.backoff}")
+    private long backoff;
+    @Value("${checkin.mail.claimTimeout}")
+    private long claimTimeout;
 
-    private final Queue<MimeMessage> messageQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile double lastThroughput;
+
+    private RateLimiter rateLimiter;
+    private ExecutorService executor;
 
-    @Async
     public void sendMail(Person receiver, String replyTo, String bcc, String subject, String text) {
         if (receiver.getEmail() != null && emailValidator.isValid(receiver.getEmail(), null)) {
             sendMail(this.from, receiver.getEmail(), replyTo, bcc, subject, text);
         }
     }
 
-    @Async
     public void sendMail(String to, String replyTo, String bcc, String subject, String text) {
         sendMail(this.from, to, replyTo, bcc, subject, text);
     }
 
-    @Async
     public void sendMail(String from, String to, String replyTo, String bcc, String subject, String text) {
         if (debug) {
             to = webmaster;
@@ -69,42 +122,162 @@ public class MailService {
             to = webmaster;
         }
         if (enabled) {
-            try {
-                log.info("Queue sending mail to: '{}', subject: '{}' ", to, subject);
-
-                MimeMessage message = mailSender.createMimeMessage();
-                MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED);
-                message.setFrom(from);
-                helper.setTo(parse(to));
-                if (!Strings.isNullOrEmpty(replyTo))
-                    helper.setReplyTo(parse(replyTo));
-                if (!Strings.isNullOrEmpty(bcc))
-                    helper.setBcc(parse(bcc));
-                helper.setSubject(subject);
-                helper.setText(text, true);
-
-                messageQueue.add(message);
-            }
-            catch (MessagingException e) {
-                log.error("Failed to send mail to: '{}', subject: '{}'", to, subject, e);
-            }
+            log.info("Queue sending mail to: '{}', subject: '{}' ", to, subject);
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.update(INSERT_MAIL, from, to, replyTo, bcc, subject, text, now, now);
         }
         else {
             log.info("Skip sending mail to: '{}', subject: '{}', text: '{}'", to, subject, text);
         }
     }
 
+    @PostConstruct
+    public void init() {
+        rateLimiter = rateLimit > 0 ? RateLimiter.create(rateLimit) : null;
+        executor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder().setNameFormat("mail-%d").build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Drains the due mails of the outbox in batches of up to {@code checkin.mail.batchSize} mails, sending up to
+     * {@code checkin.mail.concurrency} batches in parallel, each over a single connection.
+     */
     @Scheduled(fixedDelayString = "${checkin.mail.queueDelay}")
-    protected void processQueue() {
-        if (!messageQueue.isEmpty()) {
-            MimeMessage message = messageQueue.poll();
+    protected void processQueue() throws InterruptedException {
+        if (!enabled)
+            return;
+
+        long start = System.nanoTime();
+        long sentBefore = sentCount.get();
+        long failedBefore = failedCount.get();
+
+        List<Callable<Integer>> workers = Collections.nCopies(concurrency, this::dispatchBatch);
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (Future<Integer> claimed : executor.invokeAll(workers)) {
+                try {
+                    more |= claimed.get() == batchSize;
+                }
+                catch (ExecutionException e) {
+                    log.error("Failed to dispatch mails.", e.getCause());
+                }
+            }
+        }
+
+        long sent = sentCount.get() - sentBefore;
+        long failed = failedCount.get() - failedBefore;
+        if (sent + failed > 0) {
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            lastThroughput = sent * 1000.0 / millis;
+            log.info("Sent {} queued mails in {} ms, {} failed", sent, millis, failed);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("queued", jdbcTemplate.queryForObject(COUNT_MAILS, Long.class, "PENDING"));
+        statistics.put("dead", jdbcTemplate.queryForObject(COUNT_MAILS, Long.class, "DEAD"));
+        statistics.put("sent", sentCount.get());
+        statistics.put("failed", failedCount.get());
+        statistics.put("lastThroughputPerSecond", lastThroughput);
+        return statistics;
+    }
+
+    /**
+     * Claims, sends and settles one batch of due mails and returns the number of claimed mails.
+     */
+    private int dispatchBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxMail> batch = jdbcTemplate.query(CLAIM_MAILS, OUTBOX_MAIL_MAPPER,
+                Timestamp.valueOf(now.plusNanos(TimeUnit.MILLISECONDS.toNanos(claimTimeout))), Timestamp.valueOf(now), batchSize);
+        if (batch.isEmpty())
+            return 0;
+
+        Map<MimeMessage, OutboxMail> messages = new IdentityHashMap<>();
+        for (OutboxMail mail : batch) {
             try {
-                log.info("Sending queued message to: '{}', subject: '{}'", message.getAllRecipients(), message.getSubject());
-                mailSender.send(message);
+                messages.put(createMessage(mail), mail);
+            }
+            catch (MessagingException e) {
+                failed(mail, e);
             }
-            catch (MailException | MessagingException e) {
-                log.error("Failed to send mails.", e);
+        }
+
+        Map<Object, Exception> failedMessages = Collections.emptyMap();
+        if (!messages.isEmpty()) {
+            if (rateLimiter != null)
+                rateLimiter.acquire(messages.size());
+            try {
+                // sends all messages over one connection and keeps going if single messages fail
+                mailSender.send(messages.keySet().toArray(new MimeMessage[messages.size()]));
+            }
+            catch (MailSendException e) {
+                failedMessages = e.getFailedMessages();
+            }
+            catch (MailException e) {
+                failedMessages = new IdentityHashMap<>();
+                for (MimeMessage message : messages.keySet())
+                    failedMessages.put(message, e);
+            }
+        }
+
+        for (Map.Entry<MimeMessage, OutboxMail> message : messages.entrySet()) {
+            Exception failure = failedMessages.get(message.getKey());
+            if (failure != null)
+                failed(message.getValue(), failure);
+            else {
+                jdbcTemplate.update(DELETE_MAIL, message.getValue().getId());
+                sentCount.incrementAndGet();
             }
         }
+        return batch.size();
+    }
+
+    private MimeMessage createMessage(OutboxMail mail) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED);
+        message.setFrom(mail.getFrom());
+        helper.setTo(parse(mail.getTo()));
+        if (!Strings.isNullOrEmpty(mail.getReplyTo()))
+            helper.setReplyTo(parse(mail.getReplyTo()));
+        if (!Strings.isNullOrEmpty(mail.getBcc()))
+            helper.setBcc(parse(mail.getBcc()));
+        helper.setSubject(mail.getSubject());
+        helper.setText(mail.getText(), true);
+        return message;
+    }
+
+    private void failed(OutboxMail mail, Exception e) {
+        failedCount.incrementAndGet();
+        String error = String.valueOf(e.getMessage());
+        if (mail.getAttempts() >= maxAttempts) {
+            log.error("Giving up sending mail to: '{}', subject: '{}' after {} attempts", mail.getTo(), mail.getSubject(), mail.getAttempts(), e);
+            jdbcTemplate.update(KILL_MAIL, error, mail.getId());
+        }
+        else {
+            long delay = backoff << Math.min(mail.getAttempts() - 1, 20);
+            log.warn("Failed to send mail to: '{}', subject: '{}', retrying in {} ms", mail.getTo(), mail.getSubject(), delay, e);
+            LocalDateTime nextAttempt = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+            jdbcTemplate.update(RETRY_MAIL, Timestamp.valueOf(nextAttempt), error, mail.getId());
+        }
+    }
+
+    @AllArgsConstructor
+    @Getter
+    private static class OutboxMail {
+
+        private final long id;
+        private final String from;
+        private final String to;
+        private final String replyTo;
+        private final String bcc;
+        private final String subject;
+        private final String text;
+        private final int attempts;
     }
 }
@@ -1,22 +1,40 @@
 package at.refugeescode.checkin.service;
 
-import at.refugeescode.checkin.domain.Check;
 import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.dto.Attendance;
+import at.refugeescode.checkin.dto.Overview;
+import at.refugeescode.checkin.dto.PersonStatus;
+import at.refugeescode.checkin.dto.RangeOverview;
 import at.refugeescode.checkin.dto.Summary;
+import at.refugeescode.checkin.service.CheckStatusIndex.LatestCheck;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
@@ -24,10 +42,134 @@ import java.util.Optional;
 public class OverviewService {
 
     private static final String OVERVIEW_WEEK_COLUMN_PREFIX = "w-";
+    private static final String OVERVIEW_YEAR_COLUMN_PREFIX = "y-";
     private static final String OVERVIEW_ESTIMATED_PREFIX = "~";
+    private static final Pair<Duration, Boolean> NO_DURATION = Pair.of(Duration.ZERO, false);
 
     @NonNull
     private final CheckService checkService;
+    @NonNull
+    private final PersonService personService;
+    @NonNull
+    private final DayTotalService dayTotalService;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.overview.workers}")
+    private int workers;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder().setNameFormat("overview-%d").build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Builds the overview of a month from the day totals of the month, which are loaded at once.
+     */
+    @Transactional(readOnly = true)
+    public Overview getOverview(YearMonth yearMonth) {
+        return getMonthOverview(yearMonth).getOverview();
+    }
+
+    /**
+     * Builds the overviews of the months from the first to the last month (both inclusive) in parallel, each in its
+     * own read-only transaction, and totals them per person, month and year.
+     */
+    public RangeOverview getOverview(YearMonth from, YearMonth to) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        List<Callable<MonthOverview>> tasks = new ArrayList<>();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            YearMonth yearMonth = month;
+            tasks.add(() -> transactionTemplate.execute(status -> getMonthOverview(yearMonth)));
+        }
+
+        List<MonthOverview> months = new ArrayList<>(tasks.size());
+        try {
+            for (Future<MonthOverview> month : executor.invokeAll(tasks))
+                months.add(month.get());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the overview", e);
+        }
+        catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new IllegalStateException("Could not build the overview", e.getCause());
+        }
+
+        // everyone enabled in any of the months, in the order of the latest month
+        Map<Long, String> names = new LinkedHashMap<>();
+        for (int i = months.size() - 1; i >= 0; i--)
+            months.get(i).getNames().forEach(names::putIfAbsent);
+
+        List<String> columns = new ArrayList<>();
+        Map<Long, List<String>> totals = new LinkedHashMap<>();
+        names.keySet().forEach(id -> totals.put(id, new ArrayList<>()));
+        Map<Long, Pair<Duration, Boolean>> yearTotals = new HashMap<>();
+
+        for (MonthOverview month : months) {
+            YearMonth yearMonth = month.getOverview().getYearMonth();
+            columns.add(yearMonth.toString());
+            totals.forEach((id, durations) -> {
+                Pair<Duration, Boolean> monthTotal = month.getTotals().getOrDefault(id, NO_DURATION);
+                durations.add(formatDuration(monthTotal.getFirst(), monthTotal.getSecond()));
+                yearTotals.merge(id, monthTotal, OverviewService::plus);
+            });
+
+            if (yearMonth.getMonth() == Month.DECEMBER || yearMonth.equals(to)) {
+                columns.add(OVERVIEW_YEAR_COLUMN_PREFIX + yearMonth.getYear());
+                totals.forEach((id, durations) -> {
+                    Pair<Duration, Boolean> yearTotal = yearTotals.getOrDefault(id, NO_DURATION);
+                    durations.add(formatDuration(yearTotal.getFirst(), yearTotal.getSecond()));
+                });
+                yearTotals.clear();
+            }
+        }
+
+        List<Attendance> attendances = new ArrayList<>(totals.size());
+        totals.forEach((id, durations) -> attendances.add(new Attendance(names.get(id), durations)));
+        List<Overview> overviews = new ArrayList<>(months.size());
+        months.forEach(month -> overviews.add(month.getOverview()));
+        return new RangeOverview(from, to, columns, attendances, overviews);
+    }
+
+    private MonthOverview getMonthOverview(YearMonth yearMonth) {
+
+        LocalDate startOfMonth = yearMonth.atDay(1);
+        LocalDate endOfMonth = yearMonth.atEndOfMonth();
+
+        List<Person> people = personService.findEnabledUsers();
+        Map<LocalDate, LocalTime> avgCheckOutTimes = checkService.getAvgCheckOutTimes(startOfMonth, endOfMonth);
+
+        Map<Long, Map<LocalDate, Pair<Duration, Boolean>>> dayDurations =
+                dayTotalService.getEnabledUsersDayDurations(startOfMonth, endOfMonth);
+
+        List<Attendance> attendances = new ArrayList<>(people.size());
+        Map<Long, String> names = new LinkedHashMap<>();
+        Map<Long, Pair<Duration, Boolean>> totals = new HashMap<>();
+        for (Person person : people) {
+            Map<LocalDate, Pair<Duration, Boolean>> personDayDurations =
+                    dayDurations.getOrDefault(person.getId(), Collections.emptyMap());
+            attendances.add(new Attendance(person.getName(),
+                    getOverviewDurations(yearMonth, day -> personDayDurations.getOrDefault(day, NO_DURATION))));
+            names.put(person.getId(), person.getName());
+            totals.put(person.getId(), personDayDurations.values().stream().reduce(NO_DURATION, OverviewService::plus));
+        }
+
+        Overview overview = new Overview(yearMonth,
+                getOverviewColumns(yearMonth),
+                attendances,
+                getOverviewAvgCheckOutTimes(yearMonth, avgCheckOutTimes));
+        return new MonthOverview(overview, names, totals);
+    }
 
     @Transactional(readOnly = true)
     public List<String> getOverviewColumns(YearMonth yearMonth) {
@@ -52,6 +194,10 @@ public class OverviewService {
 
     @Transactional(readOnly = true)
     public List<String> getOverviewDurations(YearMonth yearMonth, Person person) {
+        return getOverviewDurations(yearMonth, day -> checkService.getDayDuration(person, day));
+    }
+
+    private List<String> getOverviewDurations(YearMonth yearMonth, Function<LocalDate, Pair<Duration, Boolean>> dayDurations) {
 
         List<String> durations = new ArrayList<>(yearMonth.lengthOfMonth()+4);
 
@@ -63,7 +209,7 @@ public class OverviewService {
 
         for (LocalDate day = startOfMonth; day.isBefore(startOfNextMonth); day = day.plusDays(1)) {
 
-            Pair<Duration, Boolean> dayDurationPair = checkService.getDayDuration(person, day);
+            Pair<Duration, Boolean> dayDurationPair = dayDurations.apply(day);
             Duration dayDuration = dayDurationPair.getFirst();
             boolean estimated = dayDurationPair.getSecond();
 
@@ -84,6 +230,11 @@ public class OverviewService {
 
     @Transactional(readOnly = true)
     public List<String> getOverviewAvgCheckOutTimes(YearMonth yearMonth) {
+        return getOverviewAvgCheckOutTimes(yearMonth,
+                checkService.getAvgCheckOutTimes(yearMonth.atDay(1), yearMonth.atEndOfMonth()));
+    }
+
+    private List<String> getOverviewAvgCheckOutTimes(YearMonth yearMonth, Map<LocalDate, LocalTime> avgCheckOutTimesPerDay) {
 
         List<String> avgCheckOutTimes = new ArrayList<>(yearMonth.lengthOfMonth()+4);
 
@@ -92,7 +243,7 @@ public class OverviewService {
 
         DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
         for (LocalDate day = startOfMonth; day.isBefore(startOfNextMonth); day = day.plusDays(1)) {
-            LocalTime avgCheckOutTime = checkService.getAvgCheckOutTime(day);
+            LocalTime avgCheckOutTime = avgCheckOutTimesPerDay.get(day);
             String formattedTime = avgCheckOutTime.equals(LocalTime.MAX) ? "" : avgCheckOutTime.format(timeFormatter);
             avgCheckOutTimes.add(formattedTime);
             if (day.getDayOfWeek() == DayOfWeek.SUNDAY) {
@@ -105,37 +256,66 @@ public class OverviewService {
 
     @Transactional(readOnly = true)
     public Duration getLastWeekDuration(Person person) {
-
         LocalDate today = LocalDate.now();
         LocalDate previousSunday = today.with(TemporalAdjusters.previous(DayOfWeek.SUNDAY));
+        return dayTotalService.getTotalDuration(person, previousSunday, today);
+    }
 
-        Duration weekTotal = Duration.ZERO;
+    @Transactional(readOnly = true)
+    public Summary getSummary(Person person) {
+        return getSummary(person, getLastWeekDuration(person));
+    }
 
-        for (LocalDate day = previousSunday; !day.isAfter(today); day = day.plusDays(1)) {
-            weekTotal = weekTotal.plus(checkService.getDayDuration(person, day).getFirst());
-        }
+    @Transactional(readOnly = true)
+    public List<Summary> getSummaries() {
+        Map<Long, Duration> weekDurations = getLastWeekDurations();
+        List<Summary> summaries = new ArrayList<>();
+        for (Person person : personService.findEnabledUsers())
+            summaries.add(getSummary(person, weekDurations.getOrDefault(person.getId(), Duration.ZERO)));
+        return summaries;
+    }
 
-        return weekTotal;
+    /**
+     * Returns the check-in status of all people, taken from the {@link CheckStatusIndex} in a single pass.
+     */
+    @Transactional(readOnly = true)
+    public List<PersonStatus> getPersonStatuses() {
+        LocalDateTime now = LocalDateTime.now();
+        List<PersonStatus> statuses = new ArrayList<>();
+        for (Person person : personService.findAll()) {
+            Optional<LatestCheck> lastStatus = checkService.lastStatus(person);
+            boolean checkedIn = lastStatus.map(LatestCheck::isCheckedIn).orElse(false);
+            Duration lastDuration = lastStatus.map(latestCheck -> Duration.between(latestCheck.getTime(), now)).orElse(null);
+            statuses.add(new PersonStatus(person.getUid(), person.getName(), checkedIn, lastDuration, person.isDisabled()));
+        }
+        return statuses;
     }
 
+    private Map<Long, Duration> getLastWeekDurations() {
+        LocalDate today = LocalDate.now();
+        LocalDate previousSunday = today.with(TemporalAdjusters.previous(DayOfWeek.SUNDAY));
+        return dayTotalService.getEnabledUsersTotalDurations(previousSunday, today);
+    }
 
-    @Transactional(readOnly = true)
-    public Summary getSummary(Person person) {
+    private Summary getSummary(Person person, Duration weekDuration) {
         String name = person.getName();
         LocalDateTime now = LocalDateTime.now();
 
-        Optional<Check> lastCheck = checkService.lastCheck(person);
-        Optional<LocalDateTime> lastTime = lastCheck.map(Check::getTime);
+        Optional<LatestCheck> lastStatus = checkService.lastStatus(person);
+        Optional<LocalDateTime> lastTime = lastStatus.map(LatestCheck::getTime);
 
-        boolean checkedIn = lastCheck.map(Check::isCheckedIn).orElse(false);
-        boolean auto = lastCheck.map(Check::isAuto).orElse(false);
+        boolean checkedIn = lastStatus.map(LatestCheck::isCheckedIn).orElse(false);
+        boolean auto = lastStatus.map(LatestCheck::isAuto).orElse(false);
 
         Duration lastDuration = lastTime.isPresent() ? Duration.between(lastTime.get(), now) : null;
-        Duration weekDuration = getLastWeekDuration(person);
 
         return new Summary(name, checkedIn, auto, lastDuration, weekDuration);
     }
 
+    private static Pair<Duration, Boolean> plus(Pair<Duration, Boolean> a, Pair<Duration, Boolean> b) {
+        return Pair.of(a.getFirst().plus(b.getFirst()), a.getSecond() || b.getSecond());
+    }
+
     public static long ceilMinutes(Duration duration) {
         if (duration.getSeconds() % 60 != 0 || duration.getNano() != 0)
             return duration.toMinutes() + 1;
@@ -150,4 +330,16 @@ public class OverviewService {
     public static String formatDuration(Duration duration, boolean estimated) {
         return (estimated ? OVERVIEW_ESTIMATED_PREFIX : "") + formatDuration(duration);
     }
+
+    /**
+     * The overview of a month with the names and month totals of the people in it.
+     */
+    @AllArgsConstructor
+    @Getter
+    private static class MonthOverview {
+
+        private final Overview overview;
+        private final Map<Long, String> names;
+        private final Map<Long, Pair<Duration, Boolean>> totals;
+    }
 }
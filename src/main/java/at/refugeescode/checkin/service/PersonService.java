@@ -2,15 +2,19 @@ package at.refugeescode.checkin.service;
 
 import at.refugeescode.checkin.domain.Check;
 import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.DayTotalRepository;
+import at.refugeescode.checkin.domain.PeopleChangedEvent;
 import at.refugeescode.checkin.domain.Person;
 import at.refugeescode.checkin.domain.PersonRepository;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 
 @Service
@@ -22,6 +26,19 @@ public class PersonService {
     private final PersonRepository personRepository;
     @NonNull
     private final CheckRepository checkRepository;
+    @NonNull
+    private final DayTotalRepository dayTotalRepository;
+    @NonNull
+    private final CheckArchive checkArchive;
+    @NonNull
+    private final CheckStatusIndex checkStatusIndex;
+    @NonNull
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Transactional(readOnly = true)
+    public List<Person> findAll() {
+        return personRepository.findAll();
+    }
 
     @Transactional(readOnly = true)
     public List<Person> findEnabledUsers() {
@@ -37,6 +54,7 @@ public class PersonService {
 
         person.setDisabled(disabled);
         personRepository.save(person);
+        eventPublisher.publishEvent(new PeopleChangedEvent(Collections.singletonList(person)));
 
         return true;
     }
@@ -45,6 +63,10 @@ public class PersonService {
     public void delete(Person person) {
         List<Check> checks = checkRepository.findByPerson(person);
         checkRepository.delete(checks);
+        checkArchive.deleteByPerson(person);
+        dayTotalRepository.deleteByPerson(person);
         personRepository.delete(person);
+        checkStatusIndex.evict(person);
+        eventPublisher.publishEvent(new PeopleChangedEvent(Collections.singletonList(person)));
     }
 }
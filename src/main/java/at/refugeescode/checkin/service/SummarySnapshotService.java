@@ -0,0 +1,112 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
+import at.refugeescode.checkin.domain.PeopleChangedEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the public summary as an immutable, already serialized snapshot.
+ * <p>
+ * The snapshot is rebuilt on the first request after a check or person was written or after the minute rolled
+ * over, which changes the durations since the last check. All other requests are served from the snapshot, and
+ * its ETag lets unchanged polls be answered with {@code 304 Not Modified}.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class SummarySnapshotService {
+
+    @NonNull
+    private final OverviewService overviewService;
+    @NonNull
+    private final ObjectMapper objectMapper;
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (isCurrent(current))
+            return current;
+
+        synchronized (this) {
+            current = snapshot;
+            if (isCurrent(current))
+                return current;
+
+            // a write during the rebuild bumps the version, so the snapshot is rebuilt again on the next request
+            long buildVersion = version.get();
+            LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+            byte[] body;
+            try {
+                body = objectMapper.writeValueAsBytes(overviewService.getSummaries());
+            }
+            catch (JsonProcessingException e) {
+                throw new IllegalStateException("Could not serialize the public summary", e);
+            }
+            String eTag = "\"" + Hashing.murmur3_128().hashBytes(body) + "\"";
+
+            snapshot = current = new Snapshot(body, eTag, buildVersion, minute);
+            log.trace("Rebuilt public summary snapshot {} of version {}", eTag, buildVersion);
+            return current;
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onChecksCreated(ChecksCreatedEvent event) {
+        version.incrementAndGet();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onPeopleChanged(PeopleChangedEvent event) {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Marks the snapshot as outdated, after the current transaction commits if there is one.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    version.incrementAndGet();
+                }
+            });
+        }
+        else
+            version.incrementAndGet();
+    }
+
+    private boolean isCurrent(Snapshot snapshot) {
+        return snapshot != null && snapshot.getVersion() == version.get() &&
+                snapshot.getMinute().equals(LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES));
+    }
+
+    @AllArgsConstructor
+    @Getter
+    public static class Snapshot {
+
+        private final byte[] body;
+        private final String eTag;
+        private final long version;
+        private final LocalDateTime minute;
+    }
+}
@@ -1,9 +1,8 @@
 package at.refugeescode.checkin.service;
 
-import at.refugeescode.checkin.domain.Check;
-import at.refugeescode.checkin.domain.CheckRepository;
 import at.refugeescode.checkin.domain.Person;
 import at.refugeescode.checkin.domain.PersonRepository;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -15,10 +14,12 @@ import org.springframework.stereotype.Service;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
@@ -42,9 +43,7 @@ public class WeeklySummaryService {
     @NonNull
     private final PersonRepository personRepository;
     @NonNull
-    private final CheckRepository checkRepository;
-    @NonNull
-    private final CheckService checkService;
+    private final DayTotalService dayTotalService;
     @NonNull
     private final MailService mailService;
 
@@ -54,46 +53,63 @@ public class WeeklySummaryService {
     private String webmaster;
     @Value("${checkin.mail.weekly}")
     private String weekly;
-
+    @Value("${checkin.mail.weeklyWorkers}")
+    private int workers;
+
+    /**
+     * Sends every person their total of last week and the trainer a summary of all totals. The totals are read
+     * with one aggregate query over the week's day totals, the personal mails are produced by a bounded pool of
+     * workers.
+     */
     @Scheduled(cron = "${checkin.mail.weekly}")
-    public void sendWeeklyMail() {
+    public void sendWeeklyMail() throws InterruptedException {
         log.info("Sending weekly mails");
+        long start = System.nanoTime();
 
         LocalDate previousOrSameSunday = LocalDate.now().with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
-        LocalDateTime startOfToday = previousOrSameSunday.atStartOfDay();
-        LocalDateTime startOfLastWeek = previousOrSameSunday.minusDays(7).atStartOfDay();
+        Map<Long, Duration> totals = dayTotalService.getTotalDurations(previousOrSameSunday.minusDays(7), previousOrSameSunday.minusDays(1));
+        List<Person> people = personRepository.findByOrderByName();
 
         DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("EEEE, dd.MM.yyyy");
         String formattedStartOfToday = dateFormatter.format(previousOrSameSunday.minusDays(1));
         String formattedStartOfLastWeek = dateFormatter.format(previousOrSameSunday.minusDays(7));
 
-        StringBuilder rowMessageBuilder = new StringBuilder();
-
-        for (Person person : personRepository.findByOrderByName()) {
+        List<Callable<String>> tasks = new ArrayList<>(people.size());
+        for (Person person : people) {
+            Duration total = totals.getOrDefault(person.getId(), Duration.ZERO);
+            tasks.add(() -> {
+                String personalMessage = String.format(PERSONAL_MESSAGE,
+                        person.getName(),
+                        formattedStartOfLastWeek,
+                        formattedStartOfToday,
+                        formatDuration(total, "%d hours and %d minutes")
+                );
+
+                //send mail to user with summary of hours during the last week
+                mailService.sendMail(person, null, webmaster,
+                        "Your RefugeesCode Weekly Attendance Summary",
+                        personalMessage);
+
+                return String.format(SUMMARY_ROW, person.getName(), formatDuration(total, "%d:%02d"));
+            });
+        }
 
-            Duration total = Duration.ZERO;
-            List<Check> checks = checkRepository.findByPersonAndCheckedInFalseOrderByTime(person);
-            for (Check check : checks) {
-                if (check.getTime().isAfter(startOfLastWeek) && !check.getTime().isAfter(startOfToday))
-                    total = total.plus(checkService.getDuration(check));
+        StringBuilder rowMessageBuilder = new StringBuilder();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, tasks.size())),
+                new ThreadFactoryBuilder().setNameFormat("weekly-summary-%d").build());
+        try {
+            // the rows keep the order of the people, regardless of which worker finished first
+            for (Future<String> row : executor.invokeAll(tasks)) {
+                try {
+                    rowMessageBuilder.append(row.get());
+                }
+                catch (ExecutionException e) {
+                    log.error("Failed to send weekly mail", e.getCause());
+                }
             }
-
-            rowMessageBuilder.append(String.format(SUMMARY_ROW,
-                    person.getName(),
-                    formatDuration(total, "%d:%02d")
-            ));
-
-            String personalMessage = String.format(PERSONAL_MESSAGE,
-                    person.getName(),
-                    formattedStartOfLastWeek,
-                    formattedStartOfToday,
-                    formatDuration(total, "%d hours and %d minutes")
-            );
-
-            //send mail to user with summary of hours during the last week
-            mailService.sendMail(person, null, webmaster,
-                    "Your RefugeesCode Weekly Attendance Summary",
-                    personalMessage);
+        }
+        finally {
+            executor.shutdown();
         }
 
         String overallSummaryMessage = String.format(SUMMARY_MESSAGE,
@@ -103,6 +119,9 @@ public class WeeklySummaryService {
 
         //send mail to admin with summary of hours during the last week for all users
         mailService.sendMail(trainer, null, null, "RefugeesCode Attendance Summary", overallSummaryMessage);
+
+        log.info("Sent weekly mails to {} people in {} ms", people.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
     private static long ceilMinutes(Duration duration) {
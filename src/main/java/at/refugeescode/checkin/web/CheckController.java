@@ -1,41 +1,70 @@
 package at.refugeescode.checkin.web;
 
 import at.refugeescode.checkin.config.SlackAppender;
+import at.refugeescode.checkin.config.TracingAspect;
 import at.refugeescode.checkin.domain.*;
-import at.refugeescode.checkin.dto.Attendance;
+import at.refugeescode.checkin.dto.CheckLog;
+import at.refugeescode.checkin.dto.IngestResult;
 import at.refugeescode.checkin.dto.Overview;
-import at.refugeescode.checkin.dto.Summary;
+import at.refugeescode.checkin.dto.PersonStatus;
+import at.refugeescode.checkin.dto.RangeOverview;
+import at.refugeescode.checkin.dto.TapEvent;
+import at.refugeescode.checkin.service.ArchiveService;
 import at.refugeescode.checkin.service.CheckService;
+import at.refugeescode.checkin.service.DayTotalService;
+import at.refugeescode.checkin.service.ExportService;
+import at.refugeescode.checkin.service.MailService;
 import at.refugeescode.checkin.service.OverviewService;
 import at.refugeescode.checkin.service.PersonService;
+import at.refugeescode.checkin.service.SummarySnapshotService;
+import ch.qos.logback.classic.LoggerContext;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
-import org.springframework.cache.jcache.JCacheCache;
 import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
-
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
 
 @RestController
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 @Slf4j
 public class CheckController {
 
+    private static final String[] CACHE_STATISTICS = {
+            "CacheHits", "CacheMisses", "CacheHitPercentage", "CachePuts", "CacheRemovals", "CacheEvictions"};
+
     @NonNull
     private final PersonRepository personRepository;
     @NonNull
@@ -45,11 +74,28 @@ public class CheckController {
     @NonNull
     private final OverviewService overviewService;
     @NonNull
-    private final CheckRepository checkRepository;
+    private final DayTotalService dayTotalService;
+    @NonNull
+    private final ArchiveService archiveService;
+    @NonNull
+    private final ExportService exportService;
+    @NonNull
+    private final SummarySnapshotService summarySnapshotService;
+    @NonNull
+    private final MailService mailService;
     @NonNull
     private final ProjectionFactory projectionFactory;
     @NonNull
     private final CacheManager cacheManager;
+    @NonNull
+    private final TracingAspect tracingAspect;
+    @NonNull
+    private final SqlStatisticsFilter sqlStatisticsFilter;
+    @NonNull
+    private final CheckEventStream checkEventStream;
+
+    @Value("${checkin.overview.maxMonths}")
+    private int overviewMaxMonths;
 
     @GetMapping("/hello")
     public ResponseEntity<Void> hello() {
@@ -79,6 +125,11 @@ public class CheckController {
         return new ResponseEntity<>(projection, HttpStatus.OK);
     }
 
+    @PostMapping("/checks/batch")
+    public ResponseEntity<IngestResult> ingestChecks(@RequestBody List<TapEvent> events) {
+        return new ResponseEntity<>(checkService.ingest(events), HttpStatus.OK);
+    }
+
     @GetMapping("/people/{uid}/status")
     public ResponseEntity<Boolean> status(@PathVariable("uid") String uid) {
 
@@ -98,6 +149,7 @@ public class CheckController {
 
         person.setDisabled(!person.isDisabled());
         person = personRepository.save(person);
+        summarySnapshotService.invalidate();
 
         return new ResponseEntity<>(person, HttpStatus.OK);
     }
@@ -119,20 +171,21 @@ public class CheckController {
     @Transactional(readOnly = true)
     public ResponseEntity<Overview> overview(@PathVariable("yearMonth") YearMonth yearMonth) {
 
-        List<Person> people = personService.findEnabledUsers();
-        List<String> columns = overviewService.getOverviewColumns(yearMonth);
-        List<String> avgCheckOutTimes = overviewService.getOverviewAvgCheckOutTimes(yearMonth);
+        return new ResponseEntity<>(overviewService.getOverview(yearMonth), HttpStatus.OK);
+    }
 
-        List<Attendance> attendances = new ArrayList<>();
-        for (Person person : people)
-            attendances.add(new Attendance(person.getName(), overviewService.getOverviewDurations(yearMonth, person)));
+    @GetMapping("/overview/{from}/{to}")
+    public ResponseEntity<RangeOverview> overview(@PathVariable("from") YearMonth from,
+                                                  @PathVariable("to") YearMonth to) {
+        if (to.isBefore(from) || from.until(to, ChronoUnit.MONTHS) >= overviewMaxMonths)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        return new ResponseEntity<>(new Overview(yearMonth, columns, attendances, avgCheckOutTimes), HttpStatus.OK);
+        return new ResponseEntity<>(overviewService.getOverview(from, to), HttpStatus.OK);
     }
 
     @GetMapping("/checks/{uid}/{yearMonth}")
     @Transactional(readOnly = true)
-    public ResponseEntity<List<CheckLogProjection>> checksByPersonAndMonth(
+    public ResponseEntity<List<CheckLog>> checksByPersonAndMonth(
             @PathVariable("uid") String uid,
             @PathVariable("yearMonth") YearMonth yearMonth) {
 
@@ -140,12 +193,12 @@ public class CheckController {
         if (person == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-        List<Check> checks = checkRepository.findByPersonAndTimeBetweenOrderByTimeDesc(
+        List<CheckLog> checkLog = checkService.getCheckLog(
                 person,
                 yearMonth.atDay(1).atStartOfDay(),
                 yearMonth.atEndOfMonth().plusDays(1).atStartOfDay());
 
-        return new ResponseEntity<>(createProjectionList(CheckLogProjection.class, checks), HttpStatus.OK);
+        return new ResponseEntity<>(checkLog, HttpStatus.OK);
     }
 
     @GetMapping("/avg-check-out-time/{date}")
@@ -155,28 +208,66 @@ public class CheckController {
         return new ResponseEntity<>(avgCheckOutTime, HttpStatus.OK);
     }
 
+    @PostMapping("/day-totals/rebuild")
+    public ResponseEntity<Integer> rebuildDayTotals(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return new ResponseEntity<>(dayTotalService.rebuild(from, to), HttpStatus.OK);
+    }
+
+    @PostMapping("/day-totals/reconcile")
+    public ResponseEntity<Integer> reconcileDayTotals(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return new ResponseEntity<>(dayTotalService.reconcile(from, to), HttpStatus.OK);
+    }
+
+    @GetMapping("/export/checks")
+    public ResponseEntity<StreamingResponseBody> exportChecks(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return csv("checks-" + from + "-" + to + ".csv", writer -> exportService.exportChecks(from, to, writer));
+    }
+
+    @GetMapping("/export/day-durations")
+    public ResponseEntity<StreamingResponseBody> exportDayDurations(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return csv("day-durations-" + from + "-" + to + ".csv", writer -> exportService.exportDayDurations(from, to, writer));
+    }
+
+    @PostMapping("/archive")
+    public ResponseEntity<Integer> archive(@RequestParam("before") YearMonth before) {
+        if (before.isAfter(archiveService.getLatestBefore()))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+        return new ResponseEntity<>(archiveService.archive(before), HttpStatus.OK);
+    }
+
     @GetMapping("/client/summary")
     @Transactional(readOnly = true)
-    public ResponseEntity<List<PersonStatusDetailProjection>> clientSummary() {
-        List<Person> all = personRepository.findAll();
-        List<PersonStatusDetailProjection> personStatusList = createProjectionList(PersonStatusDetailProjection.class, all);
-        return new ResponseEntity<>(personStatusList, HttpStatus.OK);
+    public ResponseEntity<List<PersonStatus>> clientSummary() {
+        return new ResponseEntity<>(overviewService.getPersonStatuses(), HttpStatus.OK);
     }
 
-    @GetMapping("/public/summary")
-    @Transactional(readOnly = true)
-    public ResponseEntity<List<Summary>> publicSummary() {
-        List<Person> enabledUsers = personService.findEnabledUsers();
-        List<Summary> summaries = enabledUsers.stream()
-                .map(overviewService::getSummary)
-                .collect(Collectors.toList());
-        return new ResponseEntity<>(summaries, HttpStatus.OK);
+    @GetMapping(value = "/client/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter clientEvents(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return checkEventStream.subscribe(true, lastEventId);
     }
 
-    private <T> List<T> createProjectionList(Class<T> projectionType, List<?> sourceList) {
-        return sourceList.stream()
-                .map(source -> projectionFactory.createProjection(projectionType, source))
-                .collect(Collectors.toList());
+    @GetMapping(value = "/public/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter publicEvents(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return checkEventStream.subscribe(false, lastEventId);
+    }
+
+    @GetMapping("/public/summary")
+    public ResponseEntity<byte[]> publicSummary() {
+        // the ETag makes Spring answer polls with a matching If-None-Match header with 304 Not Modified
+        SummarySnapshotService.Snapshot snapshot = summarySnapshotService.getSnapshot();
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(snapshot.getETag())
+                .body(snapshot.getBody());
     }
 
     @GetMapping(value = "/dump-caches")
@@ -185,8 +276,8 @@ public class CheckController {
         for (String cacheName : cacheManager.getCacheNames()) {
             log.trace("Cache: {}", cacheName);
             Cache cache = cacheManager.getCache(cacheName);
-            JCacheCache jCacheCache = (JCacheCache) cache;
-            javax.cache.Cache<Object, Object> nativeCache = jCacheCache.getNativeCache();
+            @SuppressWarnings("unchecked")
+            javax.cache.Cache<Object, Object> nativeCache = (javax.cache.Cache<Object, Object>) cache.getNativeCache();
             Map<Object, Object> cacheMap = new HashMap<>();
             for (javax.cache.Cache.Entry<Object, Object> entry : nativeCache) {
                 log.trace("{}: {}", entry.getKey(), entry.getValue());
@@ -197,4 +288,63 @@ public class CheckController {
         return new ResponseEntity<>(result, HttpStatus.OK);
     }
 
+    @GetMapping(value = "/mail-statistics")
+    public ResponseEntity<Map<String, Object>> mailStatistics() {
+        return new ResponseEntity<>(mailService.getStatistics(), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/slack-statistics")
+    public ResponseEntity<Map<String, Map<String, Object>>> slackStatistics() {
+        return new ResponseEntity<>(SlackAppender.getStatistics((LoggerContext) LoggerFactory.getILoggerFactory()),
+                HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/method-statistics")
+    public ResponseEntity<Map<String, Map<String, Object>>> methodStatistics() {
+        return new ResponseEntity<>(tracingAspect.getMethodStatistics(), HttpStatus.OK);
+    }
+
+    @DeleteMapping(value = "/method-statistics")
+    public ResponseEntity<Void> resetMethodStatistics() {
+        tracingAspect.resetMethodStatistics();
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @GetMapping(value = "/sql-statistics")
+    public ResponseEntity<Map<String, Map<String, Object>>> sqlStatistics() {
+        return new ResponseEntity<>(sqlStatisticsFilter.getStatistics(), HttpStatus.OK);
+    }
+
+    @DeleteMapping(value = "/sql-statistics")
+    public ResponseEntity<Void> resetSqlStatistics() {
+        sqlStatisticsFilter.resetStatistics();
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @GetMapping(value = "/cache-statistics")
+    public ResponseEntity<Map<String, Map<String, Object>>> cacheStatistics() throws JMException {
+        // JCache providers publish the statistics of caches with statistics enabled as MXBeans
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (ObjectName name : mBeanServer.queryNames(new ObjectName("javax.cache:type=CacheStatistics,*"), null)) {
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            for (String attribute : CACHE_STATISTICS)
+                statistics.put(attribute, mBeanServer.getAttribute(name, attribute));
+            result.put(name.getKeyProperty("Cache"), statistics);
+        }
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
+
+
+    private static ResponseEntity<StreamingResponseBody> csv(String filename, Export export) {
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(out -> export.write(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))));
+    }
+
+    private interface Export {
+
+        void write(Writer writer) throws IOException;
+    }
 }
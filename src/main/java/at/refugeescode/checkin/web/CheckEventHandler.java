@@ -0,0 +1,95 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.service.CheckStatusIndex;
+import at.refugeescode.checkin.service.DayTotalService;
+import at.refugeescode.checkin.service.SummarySnapshotService;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.HandleBeforeSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps derived state up to date when checks are changed through the {@code checkins} REST resource.
+ */
+@Component
+@RepositoryEventHandler(Check.class)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class CheckEventHandler {
+
+    private static final String STORED_CHECK = "SELECT person_id, time, checked_in, auto FROM checkin WHERE id = ?";
+    private static final String PREVIOUS_CHECK_ATTRIBUTE = CheckEventHandler.class.getName() + ".previousCheck";
+
+    @NonNull
+    private final CheckStatusIndex checkStatusIndex;
+    @NonNull
+    private final SummarySnapshotService summarySnapshotService;
+    @NonNull
+    private final DayTotalService dayTotalService;
+    @NonNull
+    private final PersonRepository personRepository;
+    @NonNull
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Remembers the stored state of a check before it is saved, since the days it was on need new day totals as well.
+     * The check itself already carries the changes of the request, so the state is read past the persistence context.
+     */
+    @HandleBeforeSave
+    public void handleBeforeSave(Check check) {
+        List<Check> stored = jdbcTemplate.query(STORED_CHECK, (rs, rowNum) -> new Check(
+                personRepository.findOne(rs.getLong("person_id")), rs.getTimestamp("time").toLocalDateTime(),
+                rs.getBoolean("checked_in"), rs.getBoolean("auto")), check.getId());
+        if (stored.isEmpty())
+            return;
+
+        RequestContextHolder.currentRequestAttributes()
+                .setAttribute(PREVIOUS_CHECK_ATTRIBUTE, stored.get(0), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @HandleAfterSave
+    public void handleAfterSave(Check check) {
+        List<Check> checks = new ArrayList<>();
+        checks.add(check);
+        Check previous = (Check) RequestContextHolder.currentRequestAttributes()
+                .getAttribute(PREVIOUS_CHECK_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (previous != null) {
+            checks.add(previous);
+            if (!previous.getPerson().getId().equals(check.getPerson().getId()))
+                checkStatusIndex.refresh(previous.getPerson());
+        }
+        handleChecksChanged(checks);
+    }
+
+    @HandleAfterCreate
+    public void handleAfterCreate(Check check) {
+        handleChecksChanged(Collections.singletonList(check));
+    }
+
+    /**
+     * The deleted check still carries its state before the delete, which is what the day totals are updated for.
+     */
+    @HandleAfterDelete
+    public void handleAfterDelete(Check check) {
+        handleChecksChanged(Collections.singletonList(check));
+    }
+
+    private void handleChecksChanged(List<Check> checks) {
+        dayTotalService.onChecksChanged(checks);
+        checkStatusIndex.refresh(checks.get(0).getPerson());
+        summarySnapshotService.invalidate();
+    }
+}
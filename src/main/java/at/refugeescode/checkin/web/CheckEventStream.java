@@ -0,0 +1,271 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
+import at.refugeescode.checkin.dto.CheckEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes every created check to the subscribed dashboards as Server-Sent Events.
+ * <p>
+ * Connections are held as async requests, and the events are serialized once. Every subscriber with pending events
+ * is written by its own sender thread, so a client that stops reading only blocks its own writes. A subscriber whose
+ * write blocks longer than {@code checkin.events.sendTimeout} ms, or that falls more than
+ * {@code checkin.events.queueSize} events behind, is disconnected.
+ * Like any client that lost its connection, it resumes with its {@code Last-Event-ID} from the buffer of the latest
+ * {@code checkin.events.replay} events. A client that resumes from an event that isn't buffered anymore gets a
+ * {@code reset} event instead and has to reload the summary.
+ */
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class CheckEventStream {
+
+    private static final Event HEARTBEAT = new Event(0, null, null, null);
+
+    @NonNull
+    private final ObjectMapper objectMapper;
+
+    @Value("${checkin.events.replay}")
+    private int replaySize;
+    @Value("${checkin.events.queueSize}")
+    private int queueSize;
+    @Value("${checkin.events.sendTimeout}")
+    private long sendTimeout;
+    @Value("${checkin.events.timeout}")
+    private long timeout;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // guarded by this, the ids continue across restarts, so a resuming client never replays events of another run
+    private final Deque<Event> replay = new ArrayDeque<>();
+    private long lastId = System.currentTimeMillis() * 1000;
+
+    private ObjectWriter writer;
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        // a line break would end the data of the event
+        writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("events-%d").build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        subscribers.forEach(Subscriber::close);
+        executor.shutdown();
+    }
+
+    /**
+     * Subscribes to the events after the given event id, or to the upcoming events if it is {@code null}. The uids
+     * are only sent to subscribers of the client stream.
+     */
+    public SseEmitter subscribe(boolean withUid, Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(emitter, withUid);
+        emitter.onCompletion(subscriber::ended);
+        emitter.onTimeout(subscriber::ended);
+
+        synchronized (this) {
+            if (lastEventId != null && lastEventId != lastId) {
+                if (lastEventId < lastId && !replay.isEmpty() && replay.getFirst().id <= lastEventId + 1) {
+                    for (Event event : replay)
+                        if (event.id > lastEventId)
+                            subscriber.add(event);
+                }
+                else
+                    subscriber.add(new Event(lastId, "reset", "", ""));
+            }
+            subscribers.add(subscriber);
+        }
+        subscriber.schedule();
+        log.debug("{} subscribers after subscribing from {}", subscribers.size(), lastEventId);
+        return emitter;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onChecksCreated(ChecksCreatedEvent event) {
+        List<Check> checks = new ArrayList<>(event.getChecks());
+        checks.sort(Comparator.comparing(Check::getTime));
+
+        List<String[]> data = new ArrayList<>(checks.size());
+        for (Check check : checks)
+            data.add(new String[]{serialize(check, true), serialize(check, false)});
+
+        synchronized (this) {
+            for (String[] eventData : data) {
+                Event sent = new Event(++lastId, "check", eventData[0], eventData[1]);
+                replay.addLast(sent);
+                if (replay.size() > replaySize)
+                    replay.removeFirst();
+                for (Subscriber subscriber : subscribers)
+                    subscriber.offer(sent);
+            }
+        }
+    }
+
+    /**
+     * Keeps idle connections open through proxies and notices clients that went away or stopped reading.
+     */
+    @Scheduled(fixedDelayString = "${checkin.events.heartbeat}")
+    public void heartbeat() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isSendingSince(now - TimeUnit.MILLISECONDS.toNanos(sendTimeout))) {
+                log.debug("Disconnecting a subscriber whose write blocks for more than {} ms", sendTimeout);
+                subscriber.close();
+            }
+            else
+                subscriber.offer(HEARTBEAT);
+        }
+    }
+
+    private String serialize(Check check, boolean withUid) {
+        CheckEvent checkEvent = new CheckEvent(withUid ? check.getPerson().getUid() : null,
+                check.getPerson().getName(), check.isCheckedIn(), check.isAuto(), check.getTime());
+        try {
+            return writer.writeValueAsString(checkEvent);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize the check event", e);
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Event {
+
+        private final long id;
+        private final String name;
+        private final String data;
+        private final String publicData;
+
+        SseEmitter.SseEventBuilder toSse(boolean withUid) {
+            if (name == null)
+                return SseEmitter.event().comment("");
+            return SseEmitter.event().id(Long.toString(id)).name(name).data(withUid ? data : publicData);
+        }
+    }
+
+    /**
+     * The events not yet written to one client. At most one sender thread writes them at a time.
+     * <p>
+     * A blocked write can't be cancelled, so a subscriber that is closed while writing stops receiving events and
+     * its sender thread ends once the servlet container fails the write.
+     */
+    private class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+        private final boolean withUid;
+        private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        private volatile boolean completed;
+        // System.nanoTime() when the current write started, 0 while the sender doesn't write
+        private volatile long sendingSince;
+
+        Subscriber(SseEmitter emitter, boolean withUid) {
+            this.emitter = emitter;
+            this.withUid = withUid;
+        }
+
+        void add(Event event) {
+            queue.add(event);
+        }
+
+        void offer(Event event) {
+            if (closed)
+                return;
+            if (queue.size() >= queueSize) {
+                log.debug("Disconnecting a subscriber {} events behind", queue.size());
+                close();
+                return;
+            }
+            queue.add(event);
+            schedule();
+        }
+
+        /**
+         * Completes the response from a sender thread, since a blocked write holds the emitter.
+         */
+        void close() {
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            schedule();
+        }
+
+        void ended() {
+            completed = true;
+            close();
+        }
+
+        boolean isSendingSince(long time) {
+            long since = sendingSince;
+            return since != 0 && since - time < 0;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Event event;
+                while (!closed && (event = queue.poll()) != null) {
+                    sendingSince = System.nanoTime();
+                    emitter.send(event.toSse(withUid));
+                    sendingSince = 0;
+                }
+                if (closed && !completed) {
+                    completed = true;
+                    emitter.complete();
+                }
+            }
+            catch (Exception e) {
+                log.trace("Could not send to a subscriber", e);
+                completed = true;
+                close();
+                emitter.completeWithError(e);
+            }
+            finally {
+                sendingSince = 0;
+                scheduled.set(false);
+                if (closed ? !completed : !queue.isEmpty())
+                    schedule();
+            }
+        }
+    }
+}
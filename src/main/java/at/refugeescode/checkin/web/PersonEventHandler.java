@@ -0,0 +1,31 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.service.SummarySnapshotService;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps derived state up to date when people are changed through the {@code people} REST resource.
+ */
+@Component
+@RepositoryEventHandler(Person.class)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class PersonEventHandler {
+
+    @NonNull
+    private final SummarySnapshotService summarySnapshotService;
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void handlePersonChanged(Person person) {
+        summarySnapshotService.invalidate();
+    }
+}
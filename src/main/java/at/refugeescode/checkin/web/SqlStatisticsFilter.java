@@ -0,0 +1,174 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.config.SqlStatistics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the SQL statements of every request, including the ones run by authentication. The counts are added as
+ * {@code X-SQL-Count} and {@code X-SQL-Time} headers if {@code checkin.sql.headers} is enabled, requests with more
+ * than {@code checkin.sql.budget} statements are logged and the counts are summed up per endpoint.
+ * <p>
+ * Async requests, like the CSV exports, also count the statements of their async task and are recorded once they
+ * complete. The events that are pushed to SSE subscribers later don't run SQL.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Slf4j
+public class SqlStatisticsFilter extends OncePerRequestFilter {
+
+    @Value("${checkin.sql.headers:false}")
+    private boolean headers;
+
+    @Value("${checkin.sql.budget:20}")
+    private int budget;
+
+    private final ConcurrentMap<String, EndpointStatistics> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        SqlStatistics statistics = SqlStatistics.begin();
+        // the endpoint of an async request is kept, since the request may be recycled when it completes
+        AtomicReference<String> endpoint = new AtomicReference<>();
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.registerCallableInterceptor(SqlStatisticsFilter.class, new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void preProcess(NativeWebRequest webRequest, Callable<T> task) {
+                SqlStatistics.resume(statistics);
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest webRequest, Callable<T> task, Object result) {
+                SqlStatistics.end();
+            }
+
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                recordAsync(endpoint, statistics);
+            }
+        });
+        asyncManager.registerDeferredResultInterceptor(SqlStatisticsFilter.class, new DeferredResultProcessingInterceptorAdapter() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                recordAsync(endpoint, statistics);
+            }
+        });
+        try {
+            if (headers) {
+                HttpServletResponse wrapper = new OnCommittedResponseWrapper(response) {
+                    @Override
+                    protected void onResponseCommitted() {
+                        addHeaders(this, statistics);
+                    }
+                };
+                chain.doFilter(request, wrapper);
+                if (!response.isCommitted())
+                    addHeaders(response, statistics);
+            }
+            else {
+                chain.doFilter(request, response);
+            }
+        }
+        finally {
+            SqlStatistics.end();
+            endpoint.set(endpoint(request));
+            if (!isAsyncStarted(request))
+                record(endpoint.get(), statistics);
+        }
+    }
+
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        endpoints.forEach((endpoint, statistics) -> result.put(endpoint, statistics.toMap()));
+        return result;
+    }
+
+    public void resetStatistics() {
+        endpoints.clear();
+    }
+
+    private static void addHeaders(HttpServletResponse response, SqlStatistics statistics) {
+        response.setHeader("X-SQL-Count", String.valueOf(statistics.getStatements()));
+        response.setHeader("X-SQL-Time", String.valueOf(statistics.getMillis()));
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : "[unmapped]");
+    }
+
+    /**
+     * Records an async request once, though completion is signalled again e.g. after an error.
+     */
+    private void recordAsync(AtomicReference<String> endpoint, SqlStatistics statistics) {
+        String mapped = endpoint.getAndSet(null);
+        if (mapped != null)
+            record(mapped, statistics);
+    }
+
+    private void record(String endpoint, SqlStatistics statistics) {
+        endpoints.computeIfAbsent(endpoint, e -> new EndpointStatistics()).record(statistics);
+
+        if (statistics.getStatements() > budget) {
+            log.warn("{} ran {} SQL statements in {} ms, more than the budget of {}",
+                    endpoint, statistics.getStatements(), statistics.getMillis(), budget);
+        }
+    }
+
+    private static class EndpointStatistics {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+        private final LongAdder millis = new LongAdder();
+        private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+        void record(SqlStatistics statistics) {
+            requests.increment();
+            statements.add(statistics.getStatements());
+            maxStatements.accumulate(statistics.getStatements());
+            millis.add(statistics.getMillis());
+            maxMillis.accumulate(statistics.getMillis());
+        }
+
+        Map<String, Object> toMap() {
+            long requests = this.requests.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", requests);
+            map.put("statements", statements.sum());
+            map.put("avgStatements", requests == 0 ? 0 : (double) statements.sum() / requests);
+            map.put("maxStatements", maxStatements.get());
+            map.put("millis", millis.sum());
+            map.put("maxMillis", maxMillis.get());
+            return map;
+        }
+    }
+}
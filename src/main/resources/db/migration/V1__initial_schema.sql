@@ -0,0 +1,48 @@
+-- The entity tables were created outside the application before, so every statement tolerates existing objects.
+
+CREATE SEQUENCE IF NOT EXISTS hibernate_sequence;
+
+CREATE TABLE IF NOT EXISTS person (
+  id           BIGINT       NOT NULL PRIMARY KEY,
+  disabled     BOOLEAN      NOT NULL,
+  email        VARCHAR(255) NOT NULL,
+  name         VARCHAR(255) NOT NULL,
+  slack_handle VARCHAR(255),
+  uid          VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS checkin (
+  id         BIGINT    NOT NULL PRIMARY KEY,
+  auto       BOOLEAN   NOT NULL,
+  checked_in BOOLEAN   NOT NULL,
+  time       TIMESTAMP NOT NULL,
+  person_id  BIGINT    NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS day_total (
+  id        BIGINT  NOT NULL PRIMARY KEY,
+  person_id BIGINT  NOT NULL REFERENCES person (id),
+  day       DATE    NOT NULL,
+  duration  BIGINT  NOT NULL,
+  estimated BOOLEAN NOT NULL,
+  CONSTRAINT uk_day_total_person_day UNIQUE (person_id, day)
+);
+
+CREATE INDEX IF NOT EXISTS ix_day_total_day ON day_total (day);
+
+CREATE TABLE IF NOT EXISTS mail_outbox (
+  id              BIGINT       NOT NULL PRIMARY KEY,
+  sender          VARCHAR(255) NOT NULL,
+  recipient       VARCHAR(255) NOT NULL,
+  reply_to        VARCHAR(255),
+  bcc             VARCHAR(255),
+  subject         VARCHAR(255) NOT NULL,
+  text            TEXT         NOT NULL,
+  status          VARCHAR(16)  NOT NULL,
+  attempts        INTEGER      NOT NULL,
+  next_attempt_at TIMESTAMP    NOT NULL,
+  last_error      TEXT,
+  created_at      TIMESTAMP    NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS ix_mail_outbox_pending ON mail_outbox (next_attempt_at) WHERE status = 'PENDING';
@@ -0,0 +1,11 @@
+-- the checks of a person, latest first: status lookups, durations, check logs and ingestion
+CREATE INDEX IF NOT EXISTS ix_checkin_person_time ON checkin (person_id, time DESC);
+
+-- the check-outs of a person, for day durations and the last check-out of a day
+CREATE INDEX IF NOT EXISTS ix_checkin_check_out_person_time ON checkin (person_id, time DESC) WHERE checked_in = FALSE;
+
+-- the checks of everyone in a time range, for overviews, average check-out times and day total rebuilds
+CREATE INDEX IF NOT EXISTS ix_checkin_time ON checkin (time);
+
+-- PersonRepository.findByUid, uids identify the people's cards
+CREATE UNIQUE INDEX IF NOT EXISTS ux_person_uid ON person (uid);
@@ -0,0 +1,17 @@
+-- checks older than the retention horizon, their day totals stay in day_total
+CREATE TABLE checkin_archive (
+  id         BIGINT    NOT NULL PRIMARY KEY,
+  auto       BOOLEAN   NOT NULL,
+  checked_in BOOLEAN   NOT NULL,
+  time       TIMESTAMP NOT NULL,
+  person_id  BIGINT    NOT NULL
+);
+
+CREATE INDEX ix_checkin_archive_person_time ON checkin_archive (person_id, time DESC);
+CREATE INDEX ix_checkin_archive_time ON checkin_archive (time);
+
+-- all checks, for the queries that reach into archived months
+CREATE VIEW checkin_all AS
+  SELECT id, auto, checked_in, time, person_id FROM checkin
+  UNION ALL
+  SELECT id, auto, checked_in, time, person_id FROM checkin_archive;
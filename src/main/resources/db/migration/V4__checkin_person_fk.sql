@@ -0,0 +1,11 @@
+-- checks of people deleted outside the application can't be loaded anymore
+DELETE FROM checkin c WHERE NOT EXISTS (SELECT 1 FROM person p WHERE p.id = c.person_id);
+
+-- the checkin table may have been created outside the application, with a foreign key of another name
+DO $$
+BEGIN
+  IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conrelid = 'checkin'::regclass AND contype = 'f') THEN
+    ALTER TABLE checkin ADD CONSTRAINT checkin_person_id_fkey FOREIGN KEY (person_id) REFERENCES person (id);
+  END IF;
+END
+$$;
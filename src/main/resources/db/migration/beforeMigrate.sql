@@ -0,0 +1,23 @@
+-- Runs before every migration. People created twice for the same card, e.g. by concurrent first taps of an unknown
+-- uid, are merged into the enabled or else the earliest of them before V2 indexes the uid as unique. This isn't part
+-- of a versioned migration, since it has to run before V2 and applied migrations can't change.
+DO $$
+BEGIN
+  IF to_regclass('person') IS NULL OR to_regclass('ux_person_uid') IS NOT NULL THEN
+    RETURN;
+  END IF;
+
+  CREATE TEMPORARY TABLE person_duplicate ON COMMIT DROP AS
+  SELECT id, first_value(id) OVER (PARTITION BY uid ORDER BY disabled, id) AS kept_id FROM person;
+  DELETE FROM person_duplicate WHERE id = kept_id;
+
+  UPDATE checkin c SET person_id = d.kept_id FROM person_duplicate d WHERE c.person_id = d.id;
+
+  -- the merged checks change the durations of the kept people, without day totals they are rebuilt on startup
+  IF to_regclass('day_total') IS NOT NULL THEN
+    DELETE FROM day_total WHERE EXISTS (SELECT 1 FROM person_duplicate);
+  END IF;
+
+  DELETE FROM person p USING person_duplicate d WHERE p.id = d.id;
+END
+$$;
@@ -0,0 +1,163 @@
+package at.refugeescode.checkin.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.boolex.OnMarkerEvaluator;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlackAppenderTests {
+
+    private final LoggerContext context = new LoggerContext();
+    private final Logger logger = context.getLogger(SlackAppenderTests.class);
+    private final List<String> payloads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch requested = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private HttpServer slack;
+    private SlackAppender appender;
+
+    @Before
+    public void setUp() throws IOException {
+        // a Slack stub that answers only after the test releases it
+        slack = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        slack.createContext("/hook", exchange -> {
+            requested.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            payloads.add(URLDecoder.decode(body, "UTF-8"));
+            exchange.sendResponseHeaders(200, 2);
+            exchange.getResponseBody().write("ok".getBytes(StandardCharsets.UTF_8));
+            exchange.close();
+        });
+        slack.start();
+
+        OnMarkerEvaluator evaluator = new OnMarkerEvaluator();
+        evaluator.setContext(context);
+        evaluator.addMarker(SlackAppender.POST_TO_SLACK.getName());
+        evaluator.start();
+
+        PatternLayout layout = new PatternLayout();
+        layout.setContext(context);
+        layout.setPattern("%msg");
+        layout.start();
+
+        appender = new SlackAppender();
+        appender.setContext(context);
+        appender.setName("slack");
+        appender.setWebhookURL("http://localhost:" + slack.getAddress().getPort() + "/hook");
+        appender.setEvaluator(evaluator);
+        appender.setLayout(layout);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        appender.stop();
+        slack.stop(0);
+    }
+
+    @Test
+    public void appendDoesNotWaitForSlack() {
+        appender.setBatchSize(10);
+        appender.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 25; i++)
+            append("message " + i);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(millis).isLessThan(1000);
+        assertThat(payloads).isEmpty();
+
+        release.countDown();
+        appender.stop();
+
+        assertThat(appender.getSentCount()).isEqualTo(25);
+        assertThat(appender.getDroppedCount()).isZero();
+        // the first message is posted alone while the others queue up behind it
+        assertThat(payloads.size()).isBetween(3, 5);
+        for (int i = 0; i < 25; i++)
+            assertThat(String.join("", payloads)).contains("message " + i + "\\n");
+    }
+
+    @Test
+    public void dropsNewestMessagesWhenTheQueueIsFull() throws InterruptedException {
+        appender.setQueueSize(3);
+        appender.setOverflowPolicy(SlackAppender.OverflowPolicy.DROP_NEWEST);
+        appender.start();
+        logger.addAppender(appender);
+
+        appendWhileTheFirstPostIsPending(10);
+
+        assertThat(appender.getSentCount()).isEqualTo(4);
+        assertThat(appender.getDroppedCount()).isEqualTo(6);
+        assertThat(String.join("", payloads)).contains("message 0", "message 1", "message 3").doesNotContain("message 4");
+        assertThat(SlackAppender.getStatistics(context)).containsOnlyKeys("slack");
+        assertThat(SlackAppender.getStatistics(context).get("slack"))
+                .containsEntry("sent", 4L).containsEntry("dropped", 6L).containsEntry("failed", 0L);
+    }
+
+    @Test
+    public void dropsOldestMessagesWhenTheQueueIsFull() throws InterruptedException {
+        appender.setQueueSize(3);
+        appender.setOverflowPolicy(SlackAppender.OverflowPolicy.DROP_OLDEST);
+        appender.start();
+
+        appendWhileTheFirstPostIsPending(10);
+
+        assertThat(appender.getSentCount()).isEqualTo(4);
+        assertThat(appender.getDroppedCount()).isEqualTo(6);
+        assertThat(String.join("", payloads)).contains("message 0", "message 7", "message 9").doesNotContain("message 6");
+    }
+
+    @Test
+    public void ignoresEventsWithoutMarker() {
+        appender.start();
+
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "not for Slack", null, null));
+        release.countDown();
+        appender.stop();
+
+        assertThat(appender.getSentCount()).isZero();
+        assertThat(payloads).isEmpty();
+    }
+
+    private void appendWhileTheFirstPostIsPending(int count) throws InterruptedException {
+        append("message 0");
+        assertThat(requested.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i < count; i++)
+            append("message " + i);
+
+        release.countDown();
+        appender.stop();
+    }
+
+    private void append(String message) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.INFO, message, null, null);
+        event.setMarker(SlackAppender.POST_TO_SLACK);
+        appender.doAppend(event);
+    }
+}
@@ -0,0 +1,163 @@
+package at.refugeescode.checkin.domain;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs every query method of the check and day total repositories, and the uid lookup, and explains the SQL that
+ * Hibernate generated for it. Sequential scans are disabled, so the planner only falls back to one if no index can
+ * serve the query, and generic plans are explained, so the plans don't depend on the data or the parameters.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class RepositoryQueryPlanTests {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2003, 4, 5, 12, 0);
+
+    @Autowired
+    private CheckRepository checkRepository;
+    @Autowired
+    private DayTotalRepository dayTotalRepository;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Person person;
+
+    @Before
+    public void setUp() {
+        // plan_cache_mode is available since PostgreSQL 12
+        Assume.assumeTrue(jdbcTemplate.queryForObject("SHOW server_version_num", Integer.class) >= 120000);
+
+        person = personRepository.saveAndFlush(new Person("plan-test", "Plan Test", "plan-test@example.com"));
+        checkRepository.saveAndFlush(new Check(person, TIME, true, false));
+        jdbcTemplate.execute("ANALYZE person");
+        jdbcTemplate.execute("ANALYZE checkin");
+        jdbcTemplate.execute("ANALYZE day_total");
+        jdbcTemplate.execute("SET LOCAL enable_seqscan = off");
+        jdbcTemplate.execute("SET LOCAL plan_cache_mode = force_generic_plan");
+    }
+
+    @Test
+    public void repositoryQueriesUseIndexes() throws Exception {
+        List<String> sequentialScans = new ArrayList<>();
+        for (Method method : CheckRepository.class.getDeclaredMethods())
+            sequentialScans.addAll(explain(method, checkRepository));
+        for (Method method : DayTotalRepository.class.getDeclaredMethods())
+            sequentialScans.addAll(explain(method, dayTotalRepository));
+        // an unknown uid, since known ones are cached
+        sequentialScans.addAll(explain(PersonRepository.class.getMethod("findByUid", String.class), personRepository));
+
+        assertThat(sequentialScans).isEmpty();
+    }
+
+    private List<String> explain(Method method, Object repository) throws Exception {
+        List<String> statements;
+        SqlCapture.start();
+        try {
+            method.invoke(repository, arguments(method));
+        }
+        finally {
+            statements = SqlCapture.stop();
+        }
+        assertThat(statements).as(method.getName()).isNotEmpty();
+
+        List<String> sequentialScans = new ArrayList<>();
+        for (String sql : statements) {
+            List<String> plan = plan(sql);
+            if (plan.stream().anyMatch(line -> line.contains("Seq Scan")))
+                sequentialScans.add(method.getName() + ": " + sql + "\n" + String.join("\n", plan));
+        }
+        return sequentialScans;
+    }
+
+    private List<String> plan(String sql) {
+        // Hibernate's ? placeholders become the $n parameters of a prepared statement
+        StringBuilder prepared = new StringBuilder();
+        int parameters = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?')
+                prepared.append('$').append(++parameters);
+            else
+                prepared.append(c);
+        }
+
+        jdbcTemplate.execute("PREPARE plan_test AS " + prepared);
+        try {
+            String nulls = String.join(", ", Collections.nCopies(parameters, "NULL"));
+            return jdbcTemplate.queryForList("EXPLAIN EXECUTE plan_test" + (parameters > 0 ? "(" + nulls + ")" : ""),
+                    String.class);
+        }
+        finally {
+            jdbcTemplate.execute("DEALLOCATE plan_test");
+        }
+    }
+
+    private Object[] arguments(Method method) {
+        return Arrays.stream(method.getParameterTypes()).map(type -> {
+            if (type == Person.class)
+                return person;
+            if (type == LocalDateTime.class)
+                return TIME;
+            if (type == LocalDate.class)
+                return TIME.toLocalDate();
+            if (type == Pageable.class)
+                return new PageRequest(0, 10);
+            if (type == Collection.class)
+                return Collections.singletonList(person);
+            if (type == String.class)
+                return "plan-test-unknown";
+            throw new IllegalArgumentException("No argument of " + type + " for " + method);
+        }).toArray();
+    }
+
+    /**
+     * Collects the SQL Hibernate prepares on the current thread, configured as Hibernate's statement inspector.
+     */
+    public static class SqlCapture implements StatementInspector {
+
+        private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+        static void start() {
+            STATEMENTS.set(new ArrayList<>());
+        }
+
+        static List<String> stop() {
+            List<String> statements = STATEMENTS.get();
+            STATEMENTS.remove();
+            return statements.stream().distinct().collect(Collectors.toList());
+        }
+
+        @Override
+        public String inspect(String sql) {
+            List<String> statements = STATEMENTS.get();
+            if (statements != null)
+                statements.add(sql);
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.CheckLog;
+import at.refugeescode.checkin.dto.TapEvent;
+import org.assertj.core.groups.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ArchiveServiceTests {
+
+    private static final YearMonth MONTH = YearMonth.of(2001, 3);
+
+    @Autowired
+    private ArchiveService archiveService;
+    @Autowired
+    private CheckArchive checkArchive;
+    @Autowired
+    private CheckService checkService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Person person;
+
+    @Before
+    public void setUp() {
+        person = personRepository.save(new Person("archive-test", "Archive Test", "archive-test@example.com"));
+        create(MONTH.atDay(5).atTime(9, 0), true, false);
+        create(MONTH.atDay(5).atTime(17, 0), false, false);
+        create(MONTH.atDay(6).atTime(9, 0), true, false);
+        create(MONTH.atDay(7).atStartOfDay(), false, true);
+        create(MONTH.atDay(20).atTime(10, 0), true, false);
+        create(MONTH.atDay(20).atTime(12, 0), false, false);
+        create(MONTH.plusMonths(1).atDay(2).atTime(10, 0), true, false);
+        create(MONTH.plusMonths(1).atDay(2).atTime(11, 0), false, false);
+        checkRepository.flush();
+    }
+
+    @After
+    public void tearDown() {
+        // the archived checks are rolled back with the test
+        checkArchive.load();
+    }
+
+    @Test
+    public void archivedMonthsAnswerLikeBefore() {
+        List<Tuple> checkLog = checkLog(MONTH);
+        List<Tuple> nextCheckLog = checkLog(MONTH.plusMonths(1));
+        Map<LocalDate, LocalTime> avgCheckOutTimes = checkService.getAvgCheckOutTimes(MONTH.atDay(1), MONTH.atEndOfMonth());
+        List<Pair<Duration, Boolean>> dayDurations = dayDurations(MONTH);
+
+        assertThat(archiveService.archive(MONTH.plusMonths(1))).isEqualTo(5);
+
+        assertThat(checkArchive.getArchivedBefore()).isEqualTo(MONTH.plusMonths(1).atDay(1));
+        // another instance follows with its next refresh
+        checkArchive.setArchivedBefore(LocalDate.MIN);
+        checkArchive.load();
+        assertThat(checkArchive.getArchivedBefore()).isEqualTo(MONTH.plusMonths(1).atDay(1));
+        assertThat(count("checkin_archive")).isEqualTo(5);
+        // the latest check before the archived months stays, so the next month doesn't need the archive
+        assertThat(checkRepository.findByPerson(person)).extracting(Check::getTime).containsOnly(
+                MONTH.atDay(20).atTime(12, 0), MONTH.plusMonths(1).atDay(2).atTime(10, 0),
+                MONTH.plusMonths(1).atDay(2).atTime(11, 0));
+
+        assertThat(checkLog(MONTH)).isEqualTo(checkLog);
+        assertThat(checkLog(MONTH.plusMonths(1))).isEqualTo(nextCheckLog);
+        assertThat(checkService.getAvgCheckOutTimes(MONTH.atDay(1), MONTH.atEndOfMonth())).isEqualTo(avgCheckOutTimes);
+        assertThat(dayDurations(MONTH)).isEqualTo(dayDurations);
+
+        assertThat(archiveService.archive(MONTH.plusMonths(1))).isZero();
+        assertThat(checkService.ingest(Collections.singletonList(
+                new TapEvent("archive-test", MONTH.atDay(21).atTime(9, 0)))).getRejected()).hasSize(1);
+    }
+
+    private void create(LocalDateTime time, boolean checkedIn, boolean auto) {
+        checkRepository.save(new Check(person, time, checkedIn, auto));
+    }
+
+    private List<Tuple> checkLog(YearMonth month) {
+        List<Tuple> checkLog = new ArrayList<>();
+        for (CheckLog entry : checkService.getCheckLog(person, month.atDay(1).atStartOfDay(),
+                month.atEndOfMonth().atTime(LocalTime.MAX)))
+            checkLog.add(new Tuple(entry.getId(), entry.isCheckedIn(), entry.isAuto(), entry.getTime(), entry.getDuration()));
+        return checkLog;
+    }
+
+    private List<Pair<Duration, Boolean>> dayDurations(YearMonth month) {
+        List<Pair<Duration, Boolean>> dayDurations = new ArrayList<>();
+        for (int day = 1; day <= month.lengthOfMonth(); day++)
+            dayDurations.add(checkService.getDayDuration(person, month.atDay(day)));
+        return dayDurations;
+    }
+
+    private long count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE person_id = ?", Long.class,
+                person.getId());
+    }
+}
@@ -0,0 +1,264 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.CheckLog;
+import at.refugeescode.checkin.dto.IngestResult;
+import at.refugeescode.checkin.dto.TapEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class CheckServiceTests {
+
+    private static final YearMonth MONTH = YearMonth.of(2002, 3);
+
+    @Autowired
+    private CheckService checkService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+    @Autowired
+    private CheckStatusIndex checkStatusIndex;
+    @Autowired
+    private SummarySnapshotService summarySnapshotService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${checkin.tap.debounce}")
+    private long debounce;
+
+    @Test
+    public void checkLogMatchesPerCheckDurations() {
+        Person person = personRepository.save(new Person("log-test", "Log Test", "log-test@example.com"));
+        LocalDateTime start = MONTH.atDay(1).atStartOfDay();
+        LocalDateTime end = MONTH.plusMonths(1).atDay(1).atStartOfDay();
+
+        // the check before the month, twice with identical timestamps
+        check(person, start.minusHours(5), true);
+        check(person, start.minusHours(5), true);
+        check(person, start, false);
+        check(person, start.plusDays(3).plusHours(9), true);
+        check(person, start.plusDays(3).plusHours(17), false);
+        check(person, start.plusDays(3).plusHours(17), false);
+        check(person, end.minusHours(6), true);
+        check(person, end, false);
+        check(person, end.plusHours(1), true);
+
+        List<CheckLog> checkLog = checkService.getCheckLog(person, start, end);
+        List<Check> checks = checkRepository.findByPersonAndTimeBetweenOrderByTimeDesc(person, start, end);
+
+        assertThat(checkLog).hasSize(checks.size());
+        for (int i = 0; i < checks.size(); i++) {
+            Check check = checks.get(i);
+            CheckLog entry = checkLog.get(i);
+            assertThat(entry.getTime()).isEqualTo(check.getTime());
+            assertThat(entry.getDuration()).as(check.toString()).isEqualTo(checkService.getDuration(check));
+            assertThat(entry.getName()).isEqualTo(person.getName());
+        }
+        assertThat(checkLog.get(checkLog.size() - 1).getDuration().toHours()).isEqualTo(5);
+    }
+
+    @Test
+    public void ingestMergesLateTapsAndCorrectsLaterChecks() {
+        Person person = personRepository.save(new Person("ingest-test", "Ingest Test", "ingest-test@example.com"));
+        LocalDateTime day = MONTH.atDay(4).atStartOfDay();
+        check(person, day.plusHours(9), true);
+        check(person, day.plusHours(17), false);
+
+        IngestResult result = checkService.ingest(Arrays.asList(
+                new TapEvent("ingest-test", day.plusHours(12)),
+                // a retry of the check-in that already reached the server
+                new TapEvent("ingest-test", day.plusHours(9).plusSeconds(1)),
+                new TapEvent("ingest-test", day.plusHours(12)),
+                new TapEvent("ingest-new", day.plusHours(10)),
+                new TapEvent(" ", day.plusHours(10)),
+                new TapEvent("ingest-test", LocalDateTime.now().plusDays(1))));
+
+        assertThat(result.getReceived()).isEqualTo(6);
+        assertThat(result.getCreated()).isEqualTo(2);
+        assertThat(result.getCorrected()).isEqualTo(1);
+        assertThat(result.getIgnored()).isEqualTo(2);
+        assertThat(result.getRejected()).hasSize(2);
+
+        List<Check> checks = checkRepository.findByPersonOrderByTime(person);
+        assertThat(checks).extracting(Check::getTime)
+                .containsExactly(day.plusHours(9), day.plusHours(12), day.plusHours(17));
+        assertThat(checks).extracting(Check::isCheckedIn).containsExactly(true, false, true);
+
+        Person newUser = personRepository.findByUid("ingest-new");
+        assertThat(newUser.isDisabled()).isTrue();
+        assertThat(checkRepository.findByPersonOrderByTime(newUser)).extracting(Check::isCheckedIn).containsExactly(true);
+    }
+
+    @Test
+    public void ingestedCheckOutReplacesTheAutomaticCheckOut() {
+        Person person = personRepository.save(new Person("ingest-auto", "Ingest Auto", "ingest-auto@example.com"));
+        LocalDate day = MONTH.atDay(5);
+        check(person, day.atTime(9, 0), true);
+        // the kiosk was offline when the person checked out, so the person was checked out automatically
+        checkRepository.save(new Check(person, day.plusDays(1).atStartOfDay(), false, true));
+
+        IngestResult result = checkService.ingest(Arrays.asList(new TapEvent("ingest-auto", day.atTime(17, 0))));
+
+        assertThat(result.getCreated()).isEqualTo(1);
+        assertThat(result.getCorrected()).isEqualTo(1);
+
+        List<Check> checks = checkRepository.findByPersonOrderByTime(person);
+        assertThat(checks).extracting(Check::getTime).containsExactly(day.atTime(9, 0), day.atTime(17, 0));
+        assertThat(checks).extracting(Check::isCheckedIn).containsExactly(true, false);
+        assertThat(checks).extracting(Check::isAuto).containsExactly(false, false);
+
+        Pair<Duration, Boolean> dayDuration = checkService.computeDayDuration(person, day);
+        assertThat(dayDuration.getFirst()).isEqualTo(Duration.ofHours(8));
+        assertThat(dayDuration.getSecond()).isFalse();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void concurrentTapsOfTheSameUidAlternate() throws Exception {
+        ReflectionTestUtils.setField(checkService, "debounce", 0L);
+        String uid = "tap-test";
+        int taps = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(taps);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Check>> futures = new ArrayList<>();
+            for (int i = 0; i < taps; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return checkService.newCheck(uid, false);
+                }));
+            }
+            start.countDown();
+            for (Future<Check> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM person WHERE uid = ?", Integer.class, uid))
+                    .isEqualTo(1);
+            List<Boolean> states = jdbcTemplate.queryForList("SELECT c.checked_in FROM checkin c " +
+                    "JOIN person p ON p.id = c.person_id WHERE p.uid = ? ORDER BY c.time, c.id", Boolean.class, uid);
+            assertThat(states).containsExactly(true, false, true, false, true, false, true, false);
+        }
+        finally {
+            executor.shutdownNow();
+            ReflectionTestUtils.setField(checkService, "debounce", debounce);
+            delete(uid);
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void repeatedTapWithinTheDebounceWindowReturnsThePreviousCheck() {
+        ReflectionTestUtils.setField(checkService, "debounce", 60000L);
+        String uid = "debounce-test";
+        try {
+            Check first = checkService.newCheck(uid, false);
+            Check repeated = checkService.newCheck(uid, false);
+
+            assertThat(repeated.getId()).isEqualTo(first.getId());
+            assertThat(repeated.isCheckedIn()).isTrue();
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM checkin c JOIN person p ON p.id = c.person_id " +
+                    "WHERE p.uid = ?", Integer.class, uid)).isEqualTo(1);
+        }
+        finally {
+            ReflectionTestUtils.setField(checkService, "debounce", debounce);
+            delete(uid);
+        }
+    }
+
+    private void delete(String uid) {
+        Person person = personRepository.findByUid(uid);
+        if (person == null)
+            return;
+        jdbcTemplate.update("DELETE FROM day_total WHERE person_id = ?", person.getId());
+        jdbcTemplate.update("DELETE FROM checkin WHERE person_id = ?", person.getId());
+        jdbcTemplate.update("DELETE FROM person WHERE id = ?", person.getId());
+        checkStatusIndex.refresh(person);
+        summarySnapshotService.invalidate();
+    }
+
+    @Test
+    public void avgCheckOutTimesMatchTheLastCheckOutsOfEveryDay() {
+        Person alice = personRepository.save(new Person("avg-test-alice", "Alice Example", "alice@example.com"));
+        Person bob = personRepository.save(new Person("avg-test-bob", "Bob Example", "bob@example.com"));
+        Person carol = new Person("avg-test-carol", "Carol Example", "carol@example.com");
+        carol.setDisabled(true);
+        carol = personRepository.save(carol);
+        LocalDate day = MONTH.atDay(10);
+
+        check(alice, day.atTime(9, 0), true);
+        check(alice, day.atTime(17, 0), false);
+        check(alice, day.atTime(18, 0), true);
+        check(alice, day.atTime(19, 30), false);
+        check(bob, day.atTime(10, 0), true);
+        // the auto check-out at midnight is the last check-out of the day before
+        checkRepository.save(new Check(bob, day.plusDays(1).atStartOfDay(), false, true));
+        check(bob, day.plusDays(1).atTime(8, 0), true);
+        check(bob, day.plusDays(1).atTime(12, 0), false);
+        // disabled people don't count
+        check(carol, day.atTime(8, 0), true);
+        check(carol, day.atTime(23, 0), false);
+
+        Map<LocalDate, LocalTime> avgCheckOutTimes = checkService.getAvgCheckOutTimes(day, day.plusDays(2));
+
+        assertThat(avgCheckOutTimes).containsExactly(
+                entry(day, avgCheckOutTime(day)),
+                entry(day.plusDays(1), avgCheckOutTime(day.plusDays(1))),
+                entry(day.plusDays(2), avgCheckOutTime(day.plusDays(2))));
+        assertThat(avgCheckOutTimes).containsEntry(day, LocalTime.of(9, 45))
+                .containsEntry(day.plusDays(1), LocalTime.of(12, 0))
+                .containsEntry(day.plusDays(2), LocalTime.MAX);
+    }
+
+    /**
+     * The average check-out time as computed before the grouped query, from the last check-out of every enabled
+     * person.
+     */
+    private LocalTime avgCheckOutTime(LocalDate day) {
+        OptionalDouble avgSecondsOfDay = personRepository.findByDisabledFalse().stream()
+                .map(person -> checkService.lastCheckOut(person, day.atStartOfDay(), day.plusDays(1).atStartOfDay()))
+                .filter(Optional::isPresent)
+                .mapToInt(check -> check.get().getTime().toLocalTime().toSecondOfDay())
+                .average();
+        return avgSecondsOfDay.isPresent() ? LocalTime.ofSecondOfDay((long) avgSecondsOfDay.getAsDouble()) : LocalTime.MAX;
+    }
+
+    private void check(Person person, LocalDateTime time, boolean checkedIn) {
+        checkRepository.save(new Check(person, time, checkedIn, false));
+    }
+}
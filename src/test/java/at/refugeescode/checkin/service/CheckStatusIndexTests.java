@@ -0,0 +1,110 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class CheckStatusIndexTests {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2002, 3, 4, 9, 0);
+
+    @Autowired
+    private CheckStatusIndex checkStatusIndex;
+    @Autowired
+    private CheckService checkService;
+    @Autowired
+    private PersonService personService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+
+    private Person person;
+
+    @Before
+    public void setUp() {
+        person = personRepository.save(new Person("status-test", "Status Test", "status-test@example.com"));
+    }
+
+    @Test
+    public void keepsTheLatestCheck() {
+        assertThat(checkService.isCheckedIn(person)).isFalse();
+        assertThat(checkService.getLastCheckInTime(person)).isNull();
+
+        Check checkIn = check(TIME, true, false);
+        Check checkOut = check(TIME.plusHours(8), false, true);
+        created(checkOut);
+        created(checkIn);
+
+        assertThat(checkService.isCheckedIn(person)).isFalse();
+        assertThat(checkService.isAuto(person)).isTrue();
+
+        // checks with identical timestamps are ordered by their creation
+        created(check(TIME.plusHours(8), true, false));
+
+        assertThat(checkService.isCheckedIn(person)).isTrue();
+        assertThat(checkService.isAuto(person)).isFalse();
+    }
+
+    @Test
+    public void refreshReloadsTheLatestCheck() {
+        Check checkIn = check(TIME, true, false);
+        Check checkOut = check(TIME.plusHours(8), false, false);
+        created(checkOut);
+
+        checkRepository.delete(checkOut);
+        checkStatusIndex.refresh(person);
+        assertThat(checkStatusIndex.get(person).map(CheckStatusIndex.LatestCheck::getId).orElse(null)).isEqualTo(checkIn.getId());
+
+        checkRepository.delete(checkIn);
+        checkStatusIndex.refresh(person);
+        assertThat(checkStatusIndex.get(person).isPresent()).isFalse();
+    }
+
+    @Test
+    public void loadDropsChecksDeletedPastTheIndex() {
+        Check checkIn = check(TIME, true, false);
+        created(checkIn);
+
+        // e.g. by another instance
+        checkRepository.delete(checkIn);
+        checkRepository.flush();
+        assertThat(checkStatusIndex.get(person).isPresent()).isTrue();
+
+        checkStatusIndex.load();
+        assertThat(checkStatusIndex.get(person).isPresent()).isFalse();
+    }
+
+    @Test
+    public void deletingThePersonEvictsTheLatestCheck() {
+        created(check(TIME, true, false));
+
+        personService.delete(person);
+        assertThat(checkStatusIndex.get(person).isPresent()).isFalse();
+    }
+
+    private Check check(LocalDateTime time, boolean checkedIn, boolean auto) {
+        return checkRepository.save(new Check(person, time, checkedIn, auto));
+    }
+
+    private void created(Check check) {
+        checkStatusIndex.onChecksCreated(new ChecksCreatedEvent(Collections.singletonList(check)));
+    }
+}
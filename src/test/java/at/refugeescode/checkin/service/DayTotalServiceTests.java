@@ -0,0 +1,176 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.*;
+import at.refugeescode.checkin.dto.TapEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class DayTotalServiceTests {
+
+    private static final LocalDate DAY = LocalDate.of(2002, 5, 14);
+
+    @Autowired
+    private DayTotalService dayTotalService;
+    @Autowired
+    private CheckService checkService;
+    @Autowired
+    private PersonService personService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Person alice;
+    private Person bob;
+
+    @Before
+    public void setUp() {
+        alice = personRepository.save(new Person("day-total-test-alice", "Alice Example", "alice@example.com"));
+        bob = personRepository.save(new Person("day-total-test-bob", "Bob Example", "bob@example.com"));
+    }
+
+    @Test
+    public void checkOutUpdatesEstimatedTotalsOfTheDay() {
+        create(alice, DAY.atTime(9, 0), true, false);
+        create(alice, DAY.atTime(17, 0), false, true);
+        assertThat(dayTotal(alice)).isEqualTo(checkService.computeDayDuration(alice, DAY));
+
+        create(bob, DAY.atTime(8, 0), true, false);
+        create(bob, DAY.atTime(16, 30), false, false);
+
+        assertThat(dayTotal(bob)).isEqualTo(Pair.of(Duration.ofMinutes(510), false));
+        assertThat(dayTotal(alice)).isEqualTo(checkService.computeDayDuration(alice, DAY));
+        assertThat(reconcile()).isZero();
+    }
+
+    @Test
+    public void changedCheckOutUpdatesItsPreviousAndNewDay() {
+        create(alice, DAY.atTime(9, 0), true, false);
+        create(bob, DAY.atTime(9, 0), true, false);
+        create(bob, DAY.plusDays(1).atStartOfDay(), false, true);
+        Check checkOut = checkRepository.save(new Check(alice, DAY.atTime(17, 0), false, false));
+        dayTotalService.onChecksChanged(Collections.singletonList(checkOut));
+        assertThat(dayTotal(alice)).isEqualTo(Pair.of(Duration.ofHours(8), false));
+
+        Check previous = new Check(alice, checkOut.getTime(), false, false);
+        checkOut.setTime(DAY.plusDays(1).atTime(1, 0));
+        checkOut = checkRepository.save(checkOut);
+        dayTotalService.onChecksChanged(Arrays.asList(checkOut, previous));
+
+        assertThat(dayTotal(alice)).isNull();
+        assertThat(dayTotal(alice, DAY.plusDays(1))).isEqualTo(Pair.of(Duration.ofHours(16), false));
+        assertThat(dayTotal(bob)).isEqualTo(checkService.computeDayDuration(bob, DAY));
+        assertThat(reconcile()).isZero();
+    }
+
+    @Test
+    public void reconcileRepairsDivergingTotals() {
+        checkRepository.save(new Check(alice, DAY.atTime(10, 0), true, false));
+        checkRepository.save(new Check(alice, DAY.atTime(12, 0), false, false));
+        dayTotalService.rebuild(DAY, DAY);
+        assertThat(dayTotal(alice)).isEqualTo(Pair.of(Duration.ofHours(2), false));
+
+        jdbcTemplate.update("UPDATE day_total SET duration = 0 WHERE person_id = ?", alice.getId());
+        checkRepository.save(new Check(bob, DAY.atTime(11, 0), true, false));
+        checkRepository.save(new Check(bob, DAY.atTime(13, 0), false, false));
+
+        assertThat(reconcile()).isEqualTo(2);
+        assertThat(reconcile()).isZero();
+        assertThat(dayTotal(alice)).isEqualTo(Pair.of(Duration.ofHours(2), false));
+        assertThat(dayTotal(bob)).isEqualTo(Pair.of(Duration.ofHours(2), false));
+    }
+
+    @Test
+    public void totalsSumUpTheDayTotalsOfTheRange() {
+        checkRepository.save(new Check(alice, DAY.atTime(10, 0), true, false));
+        checkRepository.save(new Check(alice, DAY.atTime(12, 0), false, false));
+        checkRepository.save(new Check(alice, DAY.plusDays(1).atTime(10, 0), true, false));
+        checkRepository.save(new Check(alice, DAY.plusDays(1).atTime(10, 30), false, false));
+        checkRepository.save(new Check(alice, DAY.plusDays(2).atTime(10, 0), true, false));
+        checkRepository.save(new Check(alice, DAY.plusDays(2).atTime(11, 0), false, false));
+        checkRepository.save(new Check(bob, DAY.atTime(11, 0), true, false));
+        checkRepository.save(new Check(bob, DAY.atTime(11, 15), false, false));
+        dayTotalService.rebuild(DAY, DAY.plusDays(2));
+        bob.setDisabled(true);
+        personRepository.saveAndFlush(bob);
+
+        assertThat(dayTotalService.getTotalDurations(DAY, DAY.plusDays(1)))
+                .containsEntry(alice.getId(), Duration.ofMinutes(150))
+                .containsEntry(bob.getId(), Duration.ofMinutes(15));
+        assertThat(dayTotalService.getEnabledUsersTotalDurations(DAY, DAY.plusDays(1)))
+                .containsEntry(alice.getId(), Duration.ofMinutes(150))
+                .doesNotContainKey(bob.getId());
+        assertThat(dayTotalService.getTotalDuration(alice, DAY, DAY.plusDays(1))).isEqualTo(Duration.ofMinutes(150));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void ingestUpdatesTheDayOfTheFollowingCheck() {
+        // the day totals are written before the commit of the ingest
+        try {
+            checkRepository.save(new Check(alice, DAY.minusDays(1).atTime(22, 0), true, false));
+            checkRepository.save(new Check(alice, DAY.atTime(2, 0), false, false));
+            dayTotalService.rebuild(DAY.minusDays(1), DAY);
+            assertThat(dayTotal(alice, DAY)).isEqualTo(Pair.of(Duration.ofHours(4), false));
+
+            checkService.ingest(Arrays.asList(
+                    new TapEvent(alice.getUid(), DAY.minusDays(1).atTime(23, 0)),
+                    new TapEvent(alice.getUid(), DAY.minusDays(1).atTime(23, 30))));
+
+            assertThat(dayTotal(alice, DAY)).isEqualTo(Pair.of(Duration.ofMinutes(150), false));
+            assertThat(dayTotalService.reconcile(DAY.minusDays(1), DAY)).isZero();
+        }
+        finally {
+            personService.delete(alice);
+            personService.delete(bob);
+        }
+    }
+
+    private void create(Person person, LocalDateTime time, boolean checkedIn, boolean auto) {
+        Check check = checkRepository.save(new Check(person, time, checkedIn, auto));
+        dayTotalService.onChecksCreated(new ChecksCreatedEvent(Collections.singletonList(check)));
+    }
+
+    private int reconcile() {
+        checkRepository.flush();
+        entityManager.clear();
+        return dayTotalService.reconcile(DAY, DAY);
+    }
+
+    private Pair<Duration, Boolean> dayTotal(Person person) {
+        return dayTotal(person, DAY);
+    }
+
+    private Pair<Duration, Boolean> dayTotal(Person person, LocalDate day) {
+        // day totals are written with plain JDBC, so don't read them from the persistence context
+        entityManager.clear();
+        return dayTotalService.getEnabledUsersDayDurations(day, day)
+                .getOrDefault(person.getId(), Collections.emptyMap())
+                .get(day);
+    }
+}
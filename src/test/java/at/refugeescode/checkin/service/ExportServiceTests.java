@@ -0,0 +1,65 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.StringWriter;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ExportServiceTests {
+
+    private static final LocalDate DAY = LocalDate.of(2002, 9, 16);
+
+    @Autowired
+    private ExportService exportService;
+    @Autowired
+    private DayTotalService dayTotalService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+
+    @Before
+    public void setUp() {
+        Person person = personRepository.save(new Person("export-test", "Example, \"Ex\"", "export-test@example.com"));
+        checkRepository.save(new Check(person, DAY.atTime(9, 0), true, false));
+        checkRepository.save(new Check(person, DAY.atTime(12, 30), false, false));
+        checkRepository.save(new Check(person, DAY.plusDays(1).atTime(10, 0), true, false));
+        checkRepository.save(new Check(person, DAY.plusDays(2).atStartOfDay(), false, true));
+        checkRepository.flush();
+        dayTotalService.rebuild(DAY, DAY.plusDays(1));
+    }
+
+    @Test
+    public void exportsChecksOfTheRange() throws Exception {
+        StringWriter csv = new StringWriter();
+        assertThat(exportService.exportChecks(DAY, DAY, csv)).isEqualTo(2);
+        assertThat(csv.toString()).isEqualTo("time,uid,name,checkedIn,auto\r\n" +
+                "2002-09-16T09:00,export-test,\"Example, \"\"Ex\"\"\",true,false\r\n" +
+                "2002-09-16T12:30,export-test,\"Example, \"\"Ex\"\"\",false,false\r\n");
+    }
+
+    @Test
+    public void exportsDayDurationsOfTheRange() throws Exception {
+        StringWriter csv = new StringWriter();
+        assertThat(exportService.exportDayDurations(DAY, DAY.plusDays(1), csv)).isEqualTo(2);
+        assertThat(csv.toString()).startsWith("day,uid,name,seconds,estimated\r\n" +
+                "2002-09-16,export-test,\"Example, \"\"Ex\"\"\",12600,false\r\n" +
+                "2002-09-17,export-test,\"Example, \"\"Ex\"\"\",");
+        assertThat(csv.toString()).endsWith(",true\r\n");
+    }
+}
@@ -0,0 +1,140 @@
+package at.refugeescode.checkin.service;
+
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class MailServiceTests {
+
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTP);
+
+    @Autowired
+    private MailService mailService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Object> fields = new HashMap<>();
+    // the outbox is shared with the application, so the tests only touch the mails after this id
+    private long lastId;
+    private Map<String, Object> statistics;
+
+    @Before
+    public void setUp() {
+        for (String field : new String[]{"enabled", "batchSize", "maxAttempts", "backoff", "rateLimiter"})
+            fields.put(field, ReflectionTestUtils.getField(mailService, field));
+        ReflectionTestUtils.setField(mailService, "enabled", true);
+        ReflectionTestUtils.setField(mailService, "batchSize", 3);
+        ReflectionTestUtils.setField(mailService, "maxAttempts", 2);
+        ReflectionTestUtils.setField(mailService, "backoff", 60000L);
+        ReflectionTestUtils.setField(mailService, "rateLimiter", null);
+
+        lastId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM mail_outbox", Long.class);
+        // queued mails of the application are postponed instead of being sent to the test server
+        jdbcTemplate.update("UPDATE mail_outbox SET next_attempt_at = next_attempt_at + interval '100 years' " +
+                "WHERE status = 'PENDING' AND id <= ?", lastId);
+        statistics = mailService.getStatistics();
+    }
+
+    @After
+    public void tearDown() {
+        fields.forEach((field, value) -> ReflectionTestUtils.setField(mailService, field, value));
+        jdbcTemplate.update("DELETE FROM mail_outbox WHERE id > ?", lastId);
+        jdbcTemplate.update("UPDATE mail_outbox SET next_attempt_at = next_attempt_at - interval '100 years' " +
+                "WHERE status = 'PENDING' AND id <= ?", lastId);
+    }
+
+    @Test
+    public void drainsTheOutboxInBatches() throws Exception {
+        for (int i = 0; i < 10; i++)
+            mailService.sendMail("to" + i + "@example.com", null, null, "Subject " + i, "Text " + i);
+        assertThat(mailService.getStatistics()).containsEntry("queued", count("queued") + 10);
+
+        mailService.processQueue();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(10);
+        assertThat(mailService.getStatistics())
+                .containsEntry("queued", count("queued"))
+                .containsEntry("sent", count("sent") + 10);
+    }
+
+    @Test
+    public void failedMailIsRetriedAndThenMarkedDead() throws Exception {
+        mailService.sendMail("first@example.com", null, null, "First", "Text");
+        mailService.sendMail("not an address", null, null, "Broken", "Text");
+        mailService.sendMail("last@example.com", null, null, "Last", "Text");
+
+        mailService.processQueue();
+
+        assertThat(greenMail.getReceivedMessages()).extracting("subject").containsOnly("First", "Last");
+        assertThat(mailService.getStatistics())
+                .containsEntry("queued", count("queued") + 1)
+                .containsEntry("dead", count("dead"));
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mail_outbox " +
+                "WHERE id > ? AND next_attempt_at > now() + interval '50 seconds'", Long.class, lastId))
+                .isEqualTo(1L);
+
+        // the retry is not due yet
+        mailService.processQueue();
+        assertThat(mailService.getStatistics())
+                .containsEntry("queued", count("queued") + 1)
+                .containsEntry("dead", count("dead"));
+
+        jdbcTemplate.update("UPDATE mail_outbox SET next_attempt_at = now() WHERE id > ?", lastId);
+        mailService.processQueue();
+
+        assertThat(mailService.getStatistics())
+                .containsEntry("queued", count("queued"))
+                .containsEntry("dead", count("dead") + 1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT attempts FROM mail_outbox WHERE id > ? AND status = 'DEAD'", Integer.class, lastId))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void concurrentDispatchersDoNotSendDuplicates() throws Exception {
+        for (int i = 0; i < 30; i++)
+            mailService.sendMail("to" + i + "@example.com", null, null, "Subject " + i, "Text " + i);
+
+        ExecutorService dispatchers = Executors.newFixedThreadPool(3);
+        try {
+            Future<?>[] futures = new Future<?>[3];
+            for (int i = 0; i < futures.length; i++)
+                futures[i] = dispatchers.submit(() -> {
+                    mailService.processQueue();
+                    return null;
+                });
+            for (Future<?> future : futures)
+                future.get();
+        }
+        finally {
+            dispatchers.shutdown();
+        }
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(30);
+        assertThat(greenMail.getReceivedMessages()).extracting("subject").doesNotHaveDuplicates();
+    }
+
+    private long count(String statistic) {
+        return (long) statistics.get(statistic);
+    }
+}
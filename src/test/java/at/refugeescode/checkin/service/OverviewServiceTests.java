@@ -0,0 +1,174 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.CheckRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.Attendance;
+import at.refugeescode.checkin.dto.Overview;
+import at.refugeescode.checkin.dto.RangeOverview;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class OverviewServiceTests {
+
+    private static final YearMonth MONTH = YearMonth.of(2002, 3);
+
+    @Autowired
+    private OverviewService overviewService;
+    @Autowired
+    private PersonService personService;
+    @Autowired
+    private DayTotalService dayTotalService;
+    @Autowired
+    private PersonRepository personRepository;
+    @Autowired
+    private CheckRepository checkRepository;
+
+    private Person alice;
+    private Person bob;
+    private Person carol;
+
+    @Before
+    public void setUp() {
+        alice = person("overview-test-alice", "Alice Example", false);
+        bob = person("overview-test-bob", "Bob Example", false);
+        carol = person("overview-test-carol", "Carol Example", true);
+
+        LocalDate first = MONTH.atDay(1);
+
+        // checked in before the month, checked out on its first day
+        check(alice, first.minusDays(1).atTime(20, 0), true, false);
+        check(alice, first.atTime(2, 30), false, false);
+        // forgot to check out, closed by the automatic check-out at midnight
+        check(alice, first.plusDays(2).atTime(9, 0), true, false);
+        check(alice, first.plusDays(3).atStartOfDay().plusNanos(1_000_000), false, true);
+        // checked out at exactly midnight, which counts for both days
+        check(alice, first.plusDays(5).atTime(18, 0), true, false);
+        check(alice, first.plusDays(6).atStartOfDay(), false, false);
+        // double tap with identical timestamps
+        check(bob, first.plusDays(5).atTime(9, 15), true, false);
+        check(bob, first.plusDays(5).atTime(17, 45, 30), false, false);
+        check(bob, first.plusDays(5).atTime(17, 45, 30), false, false);
+        // checked out at exactly midnight after the last day of the month
+        check(bob, MONTH.atEndOfMonth().atTime(13, 0), true, false);
+        check(bob, MONTH.plusMonths(1).atDay(1).atStartOfDay(), false, false);
+        // disabled users are neither listed nor part of the average check-out time
+        check(carol, first.plusDays(3).atTime(8, 0), true, false);
+        check(carol, first.plusDays(3).atTime(23, 0), false, false);
+    }
+
+    /**
+     * Adds checks on most of the remaining days of the month.
+     */
+    private void checkRandomDays() {
+        LocalDate first = MONTH.atDay(1);
+        Random random = new Random(MONTH.hashCode());
+        for (Person person : new Person[]{alice, bob, carol}) {
+            for (LocalDate day = first.plusDays(7); day.isBefore(MONTH.atEndOfMonth()); day = day.plusDays(1)) {
+                if (random.nextInt(7) < 2)
+                    continue;
+                LocalDateTime checkIn = day.atTime(8 + random.nextInt(3), random.nextInt(60), random.nextInt(60));
+                check(person, checkIn, true, false);
+                if (random.nextInt(5) == 0)
+                    check(person, day.plusDays(1).atStartOfDay().plusSeconds(random.nextInt(2)), false, true);
+                else
+                    check(person, checkIn.plusMinutes(120 + random.nextInt(480)), false, false);
+            }
+        }
+    }
+
+    @Test
+    public void overviewMatchesPerDayComputation() {
+        checkRandomDays();
+        dayTotalService.rebuild(MONTH.atDay(1), MONTH.atEndOfMonth());
+
+        Overview overview = overviewService.getOverview(MONTH);
+
+        assertThat(overview.getYearMonth()).isEqualTo(MONTH);
+        assertThat(overview.getColumns()).isEqualTo(overviewService.getOverviewColumns(MONTH));
+        assertThat(overview.getAvgCheckOutTimes()).isEqualTo(overviewService.getOverviewAvgCheckOutTimes(MONTH));
+
+        List<Person> people = personService.findEnabledUsers();
+        assertThat(overview.getAttendance()).hasSize(people.size());
+        for (int i = 0; i < people.size(); i++) {
+            Attendance attendance = overview.getAttendance().get(i);
+            assertThat(attendance.getName()).isEqualTo(people.get(i).getName());
+            assertThat(attendance.getDurations())
+                    .as(attendance.getName())
+                    .isEqualTo(overviewService.getOverviewDurations(MONTH, people.get(i)));
+        }
+
+        assertThat(overview.getAttendance()).extracting(Attendance::getName)
+                .contains(alice.getName(), bob.getName())
+                .doesNotContain(carol.getName());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void rangeOverviewCombinesTheMonths() {
+        // the months are built by other threads, which only see committed checks
+        try {
+            dayTotalService.rebuild(MONTH.atDay(1), MONTH.plusMonths(1).atEndOfMonth());
+            YearMonth from = MONTH.minusMonths(3);
+            YearMonth to = MONTH.plusMonths(1);
+
+            RangeOverview overview = overviewService.getOverview(from, to);
+
+            assertThat(overview.getColumns()).containsExactly(
+                    "2001-12", "y-2001", "2002-01", "2002-02", "2002-03", "2002-04", "y-2002");
+            assertThat(overview.getMonths()).extracting(Overview::getYearMonth).containsExactly(
+                    from, from.plusMonths(1), from.plusMonths(2), MONTH, to);
+            Overview month = overviewService.getOverview(MONTH);
+            assertThat(overview.getMonths().get(3).getAttendance()).extracting(Attendance::getDurations)
+                    .isEqualTo(month.getAttendance().stream().map(Attendance::getDurations).collect(Collectors.toList()));
+
+            // alice: 6.5 h on the 1st, 15 h estimated until the average check-out time of the 4th, which is her own
+            // check-out at midnight, and 6 h on both the 6th and the 7th
+            assertThat(totals(overview, alice)).containsExactly(Arrays.asList("", "", "", "", "~33.5", "", "~33.5"));
+            // bob: 8.5 h for each of the identical check-outs on the 6th, 11 h on both the 31st and the 1st
+            assertThat(totals(overview, bob)).containsExactly(Arrays.asList("", "", "", "", "28.0", "11.0", "39.0"));
+            assertThat(overview.getTotals()).extracting(Attendance::getName).doesNotContain(carol.getName());
+        }
+        finally {
+            for (Person person : new Person[]{alice, bob, carol})
+                personService.delete(person);
+        }
+    }
+
+    private static List<List<String>> totals(RangeOverview overview, Person person) {
+        return overview.getTotals().stream()
+                .filter(attendance -> attendance.getName().equals(person.getName()))
+                .map(Attendance::getDurations)
+                .collect(Collectors.toList());
+    }
+
+    private Person person(String uid, String name, boolean disabled) {
+        Person person = new Person(uid, name, uid + "@example.com");
+        person.setDisabled(disabled);
+        return personRepository.save(person);
+    }
+
+    private void check(Person person, LocalDateTime time, boolean checkedIn, boolean auto) {
+        checkRepository.save(new Check(person, time, checkedIn, auto));
+    }
+}
@@ -0,0 +1,89 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.domain.Check;
+import at.refugeescode.checkin.domain.ChecksCreatedEvent;
+import at.refugeescode.checkin.domain.Person;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CheckEventStreamTests {
+
+    private static final Pattern EVENT = Pattern.compile("id:(\\d+)\nevent:(\\w+)\ndata:(.*)\n\n");
+
+    @Autowired
+    private WebApplicationContext context;
+    @Autowired
+    private CheckEventStream checkEventStream;
+
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @Test
+    public void resumesFromTheLastEventId() throws Exception {
+        MockHttpServletResponse client = subscribe(get("/client/events"));
+        MockHttpServletResponse wall = subscribe(get("/public/events"));
+
+        Person person = new Person("event-test", "Event Test", "event-test@example.com");
+        LocalDateTime time = LocalDateTime.of(2002, 6, 3, 9, 0);
+        checkEventStream.onChecksCreated(new ChecksCreatedEvent(Arrays.asList(
+                new Check(person, time.plusHours(8), false, false), new Check(person, time, true, false))));
+
+        List<String[]> events = await(client, 2);
+        assertThat(events).extracting(event -> event[1]).containsExactly("check", "check");
+        assertThat(events.get(0)[2]).contains("\"uid\":\"event-test\"", "\"checkedIn\":true", "2002-06-03T09:00:00");
+        assertThat(events.get(1)[2]).contains("\"checkedIn\":false", "2002-06-03T17:00:00");
+        assertThat(await(wall, 2).get(0)[2]).contains("\"name\":\"Event Test\"").doesNotContain("uid");
+
+        List<String[]> resumed = await(subscribe(get("/client/events").header("Last-Event-ID", events.get(0)[0])), 1);
+        assertThat(resumed.get(0)).isEqualTo(events.get(1));
+
+        List<String[]> reset = await(subscribe(get("/client/events").header("Last-Event-ID", "1")), 1);
+        assertThat(reset.get(0)[1]).isEqualTo("reset");
+        assertThat(reset.get(0)[0]).isEqualTo(events.get(1)[0]);
+    }
+
+    private MockHttpServletResponse subscribe(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+        return result.getResponse();
+    }
+
+    private static List<String[]> await(MockHttpServletResponse response, int count) throws Exception {
+        List<String[]> events = new ArrayList<>();
+        for (int i = 0; i < 50 && events.size() < count; i++) {
+            Thread.sleep(100);
+            events.clear();
+            Matcher matcher = EVENT.matcher(response.getContentAsString());
+            while (matcher.find())
+                events.add(new String[]{matcher.group(1), matcher.group(2), matcher.group(3)});
+        }
+        assertThat(events).as(response.getContentAsString()).hasSize(count);
+        return events;
+    }
+}
@@ -0,0 +1,111 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class SqlStatisticsFilterTests {
+
+    @Autowired
+    private SqlStatisticsFilter sqlStatisticsFilter;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PersonRepository personRepository;
+
+    @Before
+    public void setUp() {
+        sqlStatisticsFilter.resetStatistics();
+    }
+
+    @Test
+    public void countsJdbcAndJpaStatementsPerRequest() throws Exception {
+        MockHttpServletResponse response = get("/people/{uid}/status", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+                jdbcTemplate.queryForObject("SELECT 2", Integer.class);
+                personRepository.count();
+                response.getWriter().write("ok");
+                response.flushBuffer();
+            }
+        });
+        get("/people/{uid}/status", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+            }
+        });
+
+        assertThat(response.getHeader("X-SQL-Count")).isEqualTo("3");
+        assertThat(response.getHeader("X-SQL-Time")).isNotNull();
+        assertThat(sqlStatisticsFilter.getStatistics().get("GET /people/{uid}/status"))
+                .containsEntry("requests", 2L)
+                .containsEntry("statements", 3L)
+                .containsEntry("maxStatements", 3L);
+    }
+
+    @Test
+    public void countsTheStatementsOfAsyncRequests() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new StreamingController())
+                .addFilters(sqlStatisticsFilter)
+                .build();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result));
+
+        assertThat(result.getResponse().getContentAsString()).isEqualTo("2");
+
+        assertThat(sqlStatisticsFilter.getStatistics().get("GET /stream"))
+                .containsEntry("requests", 1L)
+                .containsEntry("statements", 2L);
+    }
+
+    @RestController
+    private class StreamingController {
+
+        @GetMapping("/stream")
+        public StreamingResponseBody stream() {
+            return out -> {
+                jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+                out.write(String.valueOf(jdbcTemplate.queryForObject("SELECT 2", Integer.class)).getBytes());
+            };
+        }
+    }
+
+    private MockHttpServletResponse get(String pattern, HttpServlet servlet) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", pattern);
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sqlStatisticsFilter.doFilter(request, response, new MockFilterChain(servlet));
+        return response;
+    }
+}